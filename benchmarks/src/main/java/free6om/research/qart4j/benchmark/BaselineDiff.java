@@ -0,0 +1,81 @@
+package free6om.research.qart4j.benchmark;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Compares two JMH JSON reports, usually baselines from before and after a change, benchmark by benchmark:
+ * <pre>
+ * java -cp target/benchmarks.jar free6om.research.qart4j.benchmark.BaselineDiff old.json new.json
+ * </pre>
+ * A positive change means the new score is higher, which is slower for the average time
+ * benchmarks here.
+ */
+public class BaselineDiff {
+    public static void main(String[] args) throws IOException {
+        if(args.length != 2) {
+            System.err.println("usage: BaselineDiff <old report> <new report>");
+            System.exit(1);
+        }
+
+        Map<String, JsonObject> before = read(args[0]);
+        Map<String, JsonObject> after = read(args[1]);
+
+        System.out.println(String.format("%-80s %14s %14s %9s", "benchmark", "old", "new", "change"));
+        for(Map.Entry<String, JsonObject> entry : after.entrySet()) {
+            JsonObject metric = entry.getValue();
+            double score = metric.get("score").getAsDouble();
+            String unit = metric.get("scoreUnit").getAsString();
+            JsonObject old = before.get(entry.getKey());
+            if(old == null) {
+                System.out.println(String.format("%-80s %14s %14.3f %9s  %s", entry.getKey(), "-", score, "new", unit));
+                continue;
+            }
+            double oldScore = old.get("score").getAsDouble();
+            System.out.println(String.format("%-80s %14.3f %14.3f %+8.1f%%  %s",
+                    entry.getKey(), oldScore, score, (score - oldScore) / oldScore * 100, unit));
+        }
+        for(String key : before.keySet()) {
+            if(!after.containsKey(key)) {
+                System.out.println(String.format("%-80s %14.3f %14s %9s", key, before.get(key).get("score").getAsDouble(), "-", "gone"));
+            }
+        }
+    }
+
+    // primary metric of every run, keyed by benchmark name and parameters
+    private static Map<String, JsonObject> read(String file) throws IOException {
+        Map<String, JsonObject> metrics = new TreeMap<String, JsonObject>();
+        Reader reader = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8);
+        try {
+            JsonArray runs = JsonParser.parseReader(reader).getAsJsonArray();
+            for(JsonElement element : runs) {
+                JsonObject run = element.getAsJsonObject();
+                StringBuilder key = new StringBuilder(run.get("benchmark").getAsString());
+                if(run.has("params")) {
+                    Map<String, String> params = new TreeMap<String, String>();
+                    for(Map.Entry<String, JsonElement> param : run.getAsJsonObject("params").entrySet()) {
+                        params.put(param.getKey(), param.getValue().getAsString());
+                    }
+                    for(Map.Entry<String, String> param : params.entrySet()) {
+                        key.append(' ').append(param.getKey()).append('=').append(param.getValue());
+                    }
+                }
+                metrics.put(key.toString(), run.getAsJsonObject("primaryMetric"));
+            }
+        } finally {
+            reader.close();
+        }
+
+        return metrics;
+    }
+}
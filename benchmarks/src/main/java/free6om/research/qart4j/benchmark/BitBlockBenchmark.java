@@ -0,0 +1,78 @@
+package free6om.research.qart4j.benchmark;
+
+import free6om.research.qart4j.BitBlock;
+import free6om.research.qart4j.Level;
+import free6om.research.qart4j.QArtException;
+import free6om.research.qart4j.ReedSolomonUtil;
+import free6om.research.qart4j.Version;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The first block of a version: constructing it, and constructing it then asking for every
+ * bit the way the encoder does, which uses up the parity basis.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 3, time = 1)
+@Fork(1)
+public class BitBlockBenchmark {
+    @Param({"1", "2", "3", "4", "5", "6", "7", "8", "9", "10",
+            "11", "12", "13", "14", "15", "16", "17", "18", "19", "20",
+            "21", "22", "23", "24", "25", "26", "27", "28", "29", "30",
+            "31", "32", "33", "34", "35", "36", "37", "38", "39", "40"})
+    public int version;
+
+    private int numberOfDataBytes;
+    private int numberOfCheckBytes;
+    // data bytes then check bytes of one block
+    private byte[] bytes;
+    private byte[] wanted;
+
+    @Setup
+    public void setup() {
+        Version.VersionLevelInfo levelInfo = Version.VERSION_INFOS[version].levelInfos[Level.L.ordinal()];
+        numberOfDataBytes = new Version(version).dataBytes(Level.L) / levelInfo.numberOfBlocks;
+        numberOfCheckBytes = levelInfo.numberOfCheckBytesPerBlock;
+
+        Random random = new Random(42);
+        bytes = new byte[numberOfDataBytes + numberOfCheckBytes];
+        random.nextBytes(bytes);
+        ReedSolomonUtil.generateECBytes(bytes, 0, numberOfDataBytes, bytes, numberOfDataBytes, numberOfCheckBytes);
+        wanted = new byte[bytes.length * 8];
+        for(int i = 0;i < wanted.length;i++) {
+            wanted[i] = (byte) random.nextInt(2);
+        }
+    }
+
+    @Benchmark
+    public BitBlock construct() throws QArtException {
+        return new BitBlock(numberOfDataBytes, numberOfCheckBytes, bytes, 0, bytes, numberOfDataBytes);
+    }
+
+    @Benchmark
+    public int constructAndSetAll() throws QArtException {
+        BitBlock block = new BitBlock(numberOfDataBytes, numberOfCheckBytes, bytes, 0, bytes, numberOfDataBytes);
+        int set = 0;
+        for(int i = 0;i < wanted.length;i++) {
+            if(block.canSet(i, wanted[i])) {
+                set++;
+            }
+        }
+        return set;
+    }
+}
@@ -0,0 +1,80 @@
+package free6om.research.qart4j.benchmark;
+
+import free6om.research.qart4j.Bits;
+import free6om.research.qart4j.Level;
+import free6om.research.qart4j.Number;
+import free6om.research.qart4j.QArtException;
+import free6om.research.qart4j.Raw;
+import free6om.research.qart4j.Version;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bits.addCheckBytes on a full set of data bytes, including the copy that restores them, and
+ * the URL and digits an encode writes before it.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 3, time = 1)
+@Fork(1)
+public class BitsBenchmark {
+    @Param({"1", "2", "3", "4", "5", "6", "7", "8", "9", "10",
+            "11", "12", "13", "14", "15", "16", "17", "18", "19", "20",
+            "21", "22", "23", "24", "25", "26", "27", "28", "29", "30",
+            "31", "32", "33", "34", "35", "36", "37", "38", "39", "40"})
+    public int version;
+
+    private Version qrVersion;
+    private int numberOfDataBytes;
+    private byte[] data;
+    private byte[] bits;
+    private Raw url;
+    private Number numbers;
+
+    @Setup
+    public void setup() {
+        qrVersion = new Version(version);
+        numberOfDataBytes = qrVersion.dataBytes(Level.L);
+        data = new byte[numberOfDataBytes];
+        new Random(42).nextBytes(data);
+        bits = new byte[Version.VERSION_INFOS[version].bytes];
+        url = new Raw("http://qr.io#");
+        int digits = (numberOfDataBytes*8 - url.availableBits(qrVersion) - new Number("").availableBits(qrVersion))/10*3;
+        char[] chars = new char[Math.max(digits, 0)];
+        for(int i = 0;i < chars.length;i++) {
+            chars[i] = (char) ('0' + i % 10);
+        }
+        numbers = new Number(new String(chars));
+    }
+
+    @Benchmark
+    public byte[] addCheckBytes() throws QArtException {
+        System.arraycopy(data, 0, bits, 0, numberOfDataBytes);
+        Bits b = new Bits(bits, numberOfDataBytes * 8);
+        b.addCheckBytes(qrVersion, Level.L);
+        return b.getBits();
+    }
+
+    @Benchmark
+    public byte[] encode() throws QArtException {
+        Bits b = new Bits(qrVersion);
+        url.encode(b, qrVersion);
+        numbers.encode(b, qrVersion);
+        b.addCheckBytes(qrVersion, Level.L);
+        return b.getBits();
+    }
+}
@@ -0,0 +1,76 @@
+package free6om.research.qart4j.benchmark;
+
+import free6om.research.qart4j.Image;
+import free6om.research.qart4j.LumaPlane;
+import free6om.research.qart4j.QArtException;
+import free6om.research.qart4j.QRCode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Image.target over every module, and Image.encode with and without dithering, for a
+ * synthetic target covering the whole code.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 3, time = 1)
+@Fork(1)
+public class ImageBenchmark {
+    // short enough for version 1
+    static final String URL = "http://qr.io";
+
+    @Param({"1", "2", "3", "4", "5", "6", "7", "8", "9", "10",
+            "11", "12", "13", "14", "15", "16", "17", "18", "19", "20",
+            "21", "22", "23", "24", "25", "26", "27", "28", "29", "30",
+            "31", "32", "33", "34", "35", "36", "37", "38", "39", "40"})
+    public int version;
+
+    @Param({SyntheticImages.GRADIENT, SyntheticImages.NOISE})
+    public String image;
+
+    private int size;
+    private Image plain;
+    private Image dithered;
+
+    @Setup
+    public void setup() {
+        size = SyntheticImages.size(version);
+        LumaPlane target = SyntheticImages.target(image, size);
+        plain = new Image(target, 0, 0, URL, version, 2, 0, false, 42, false, false, false);
+        dithered = new Image(target, 0, 0, URL, version, 2, 0, false, 42, true, false, false);
+    }
+
+    @Benchmark
+    public int target() {
+        int sum = 0;
+        for(int y = 0;y < size;y++) {
+            for(int x = 0;x < size;x++) {
+                sum += plain.target(x, y).target;
+            }
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public QRCode encode() throws QArtException {
+        return plain.encode();
+    }
+
+    @Benchmark
+    public QRCode encodeDither() throws QArtException {
+        return dithered.encode();
+    }
+}
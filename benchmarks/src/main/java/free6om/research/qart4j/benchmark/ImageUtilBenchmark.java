@@ -0,0 +1,92 @@
+package free6om.research.qart4j.benchmark;
+
+import com.google.zxing.common.BitMatrix;
+import free6om.research.qart4j.Image;
+import free6om.research.qart4j.ImageUtil;
+import free6om.research.qart4j.LumaPlane;
+import free6om.research.qart4j.MatrixToImageConfig;
+import free6om.research.qart4j.MatrixToImageWriter;
+import free6om.research.qart4j.QArtException;
+import free6om.research.qart4j.QRCode;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The steps around encoding: the target from an input image the size of the code, as rows or
+ * as a luma plane, and the output image from an encoded code at {@link #SCALE} pixels per
+ * module, either through a BitMatrix or rendered directly.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 3, time = 1)
+@Fork(1)
+public class ImageUtilBenchmark {
+    static final int QUIET_ZONE = 2;
+    static final int SCALE = 4;
+
+    @Param({"1", "2", "3", "4", "5", "6", "7", "8", "9", "10",
+            "11", "12", "13", "14", "15", "16", "17", "18", "19", "20",
+            "21", "22", "23", "24", "25", "26", "27", "28", "29", "30",
+            "31", "32", "33", "34", "35", "36", "37", "38", "39", "40"})
+    public int version;
+
+    @Param({SyntheticImages.GRADIENT, SyntheticImages.NOISE})
+    public String image;
+
+    private int size;
+    private int outputSize;
+    private BufferedImage input;
+    private QRCode code;
+    private BitMatrix matrix;
+    private MatrixToImageConfig config;
+
+    @Setup
+    public void setup() throws QArtException {
+        size = SyntheticImages.size(version);
+        outputSize = (size + 2 * QUIET_ZONE) * SCALE;
+        input = SyntheticImages.image(image, size, size);
+        LumaPlane target = ImageUtil.makeLuma(input, 0, 0, size, size);
+        code = new Image(target, 0, 0, ImageBenchmark.URL, version, 2, 0, false, 42, false, false, false).encode();
+        matrix = ImageUtil.makeBitMatrix(code, QUIET_ZONE, outputSize);
+        config = new MatrixToImageConfig();
+    }
+
+    @Benchmark
+    public int[][] makeTarget() {
+        return ImageUtil.makeTarget(input, 0, 0, size, size);
+    }
+
+    @Benchmark
+    public LumaPlane makeLuma() {
+        return ImageUtil.makeLuma(input, 0, 0, size, size);
+    }
+
+    @Benchmark
+    public BitMatrix makeBitMatrix() {
+        return ImageUtil.makeBitMatrix(code, QUIET_ZONE, outputSize);
+    }
+
+    @Benchmark
+    public BufferedImage toBufferedImage() {
+        return MatrixToImageWriter.toBufferedImage(matrix, config);
+    }
+
+    @Benchmark
+    public BufferedImage makeImage() {
+        return ImageUtil.makeImage(code, QUIET_ZONE, outputSize, config);
+    }
+}
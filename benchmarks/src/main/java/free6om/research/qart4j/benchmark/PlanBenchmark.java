@@ -0,0 +1,47 @@
+package free6om.research.qart4j.benchmark;
+
+import free6om.research.qart4j.Level;
+import free6om.research.qart4j.Mask;
+import free6om.research.qart4j.Plan;
+import free6om.research.qart4j.PlanCache;
+import free6om.research.qart4j.QArtException;
+import free6om.research.qart4j.Version;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building a plan from scratch against fetching it from the plan cache.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 3, time = 1)
+@Fork(1)
+public class PlanBenchmark {
+    @Param({"1", "2", "3", "4", "5", "6", "7", "8", "9", "10",
+            "11", "12", "13", "14", "15", "16", "17", "18", "19", "20",
+            "21", "22", "23", "24", "25", "26", "27", "28", "29", "30",
+            "31", "32", "33", "34", "35", "36", "37", "38", "39", "40"})
+    public int version;
+
+    @Benchmark
+    public Plan newPlan() throws QArtException {
+        return Plan.newPlan(new Version(version), Level.L, new Mask(2));
+    }
+
+    @Benchmark
+    public Plan cachedPlan() throws QArtException {
+        return PlanCache.getPlan(new Version(version), Level.L, new Mask(2), 0);
+    }
+}
@@ -0,0 +1,139 @@
+package free6om.research.qart4j.benchmark;
+
+import com.google.zxing.common.reedsolomon.GenericGF;
+import com.google.zxing.common.reedsolomon.ReedSolomonEncoder;
+import free6om.research.qart4j.Level;
+import free6om.research.qart4j.ReedSolomonUtil;
+import free6om.research.qart4j.Version;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Check byte computation for {@code codes} codes of one version: block by block through zxing
+ * (what Bits.addCheckBytes used to do), block by block through the table encoder, all blocks of a
+ * code per call, and the same block of every code per call.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReedSolomonBenchmark {
+    @Param({"1", "2", "3", "4", "5", "6", "7", "8", "9", "10",
+            "11", "12", "13", "14", "15", "16", "17", "18", "19", "20",
+            "21", "22", "23", "24", "25", "26", "27", "28", "29", "30",
+            "31", "32", "33", "34", "35", "36", "37", "38", "39", "40"})
+    public int version;
+
+    @Param({"1", "64"})
+    public int codes;
+
+    private int numberOfBlocks;
+    private int numberOfDataBytesPerBlock;
+    private int numberOfExtraBytes;
+    private int numberOfCheckBytes;
+    private int numberOfDataBytes;
+
+    // codes back to back: data bytes then check bytes, as Bits lays them out
+    private byte[] bytes;
+    private int codeBytes;
+    private ReedSolomonEncoder encoder;
+    private int[] toEncode;
+
+    @Setup
+    public void setup() {
+        Version.VersionInfo versionInfo = Version.VERSION_INFOS[version];
+        Version.VersionLevelInfo levelInfo = versionInfo.levelInfos[Level.L.ordinal()];
+        numberOfBlocks = levelInfo.numberOfBlocks;
+        numberOfCheckBytes = levelInfo.numberOfCheckBytesPerBlock;
+        numberOfDataBytes = new Version(version).dataBytes(Level.L);
+        numberOfDataBytesPerBlock = numberOfDataBytes / numberOfBlocks;
+        numberOfExtraBytes = numberOfDataBytes % numberOfBlocks;
+        codeBytes = versionInfo.bytes;
+
+        bytes = new byte[codes * codeBytes];
+        new Random(42).nextBytes(bytes);
+        encoder = new ReedSolomonEncoder(GenericGF.QR_CODE_FIELD_256);
+        toEncode = new int[numberOfDataBytesPerBlock + 1 + numberOfCheckBytes];
+    }
+
+    @Benchmark
+    public byte[] zxingPerBlock() {
+        for(int c = 0;c < codes;c++) {
+            int code = c * codeBytes;
+            int dataIndex = code;
+            int checkIndex = code + numberOfDataBytes;
+            for(int i = 0;i < numberOfBlocks;i++) {
+                int length = i < numberOfBlocks - numberOfExtraBytes ? numberOfDataBytesPerBlock : numberOfDataBytesPerBlock + 1;
+                int[] message = length + numberOfCheckBytes == toEncode.length ? toEncode : new int[length + numberOfCheckBytes];
+                for(int j = 0;j < length;j++) {
+                    message[j] = bytes[dataIndex + j] & 0xFF;
+                }
+                for(int j = length;j < message.length;j++) {
+                    message[j] = 0;
+                }
+                encoder.encode(message, numberOfCheckBytes);
+                for(int j = 0;j < numberOfCheckBytes;j++) {
+                    bytes[checkIndex + j] = (byte) message[length + j];
+                }
+                dataIndex += length;
+                checkIndex += numberOfCheckBytes;
+            }
+        }
+        return bytes;
+    }
+
+    @Benchmark
+    public byte[] tablePerBlock() {
+        for(int c = 0;c < codes;c++) {
+            int code = c * codeBytes;
+            int dataIndex = code;
+            int checkIndex = code + numberOfDataBytes;
+            for(int i = 0;i < numberOfBlocks;i++) {
+                int length = i < numberOfBlocks - numberOfExtraBytes ? numberOfDataBytesPerBlock : numberOfDataBytesPerBlock + 1;
+                ReedSolomonUtil.generateECBytes(bytes, dataIndex, length, bytes, checkIndex, numberOfCheckBytes);
+                dataIndex += length;
+                checkIndex += numberOfCheckBytes;
+            }
+        }
+        return bytes;
+    }
+
+    @Benchmark
+    public byte[] batchPerCode() {
+        for(int c = 0;c < codes;c++) {
+            int code = c * codeBytes;
+            ReedSolomonUtil.generateBlockECBytes(bytes, code, numberOfBlocks, numberOfDataBytesPerBlock, numberOfExtraBytes,
+                    bytes, code + numberOfDataBytes, numberOfCheckBytes);
+        }
+        return bytes;
+    }
+
+    @Benchmark
+    public byte[] batchPerBlock() {
+        int numberOfShortBlocks = numberOfBlocks - numberOfExtraBytes;
+        int dataIndex = 0;
+        int checkIndex = numberOfDataBytes;
+        for(int i = 0;i < numberOfBlocks;i++) {
+            int length = i < numberOfShortBlocks ? numberOfDataBytesPerBlock : numberOfDataBytesPerBlock + 1;
+            ReedSolomonUtil.generateECBytes(bytes, dataIndex, codeBytes, codes, length,
+                    bytes, checkIndex, codeBytes, numberOfCheckBytes);
+            dataIndex += length;
+            checkIndex += numberOfCheckBytes;
+        }
+        return bytes;
+    }
+}
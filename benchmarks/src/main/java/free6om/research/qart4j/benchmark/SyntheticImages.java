@@ -0,0 +1,50 @@
+package free6om.research.qart4j.benchmark;
+
+import free6om.research.qart4j.ImageUtil;
+import free6om.research.qart4j.LumaPlane;
+
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+/**
+ * Input images made up on the spot, so benchmarks don't depend on files: a smooth diagonal
+ * gradient, which leaves most modules free to follow the target, and uniform noise, which
+ * gives every module a high contrast.
+ */
+final class SyntheticImages {
+    static final String GRADIENT = "gradient";
+    static final String NOISE = "noise";
+
+    private SyntheticImages() {
+    }
+
+    static BufferedImage image(String kind, int width, int height) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        Random random = new Random(42);
+        for(int y = 0;y < height;y++) {
+            for(int x = 0;x < width;x++) {
+                int gray;
+                if(GRADIENT.equals(kind)) {
+                    gray = (x + y) * 255 / Math.max(width + height - 2, 1);
+                } else if(NOISE.equals(kind)) {
+                    gray = random.nextInt(256);
+                } else {
+                    throw new IllegalArgumentException("unknown image " + kind);
+                }
+                image.setRGB(x, y, 0xFF000000 | gray << 16 | gray << 8 | gray);
+            }
+        }
+        return image;
+    }
+
+    static LumaPlane target(String kind, int size) {
+        return ImageUtil.makeLuma(image(kind, size, size), 0, 0, size, size);
+    }
+
+    /**
+     * @return modules per side of a code of the given version, without quiet zone
+     */
+    static int size(int version) {
+        return 17 + 4 * version;
+    }
+}
@@ -0,0 +1,161 @@
+package free6om.research.qart4j;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs newline delimited JSON requests through a fixed pool of workers.
+ *
+ * Every input line is one object whose fields are the long command line option names
+ * ("url", "input", "output", "version", "autoVersions", "mask", "quiet", "rotation", "size",
+ * "colorBlack", "colorWhite", "randControl", "seed", "dither", "onlyData", "saveControl",
+ * "marginTop", "marginBottom", "marginLeft", "marginRight", "width", "height", "format") plus an optional
+ * "id"; missing fields fall back to the defaults request. One result line is written per
+ * request as soon as it finishes, so results come out in completion order, not input order.
+ * At most twice the number of workers requests are held in memory at any time.
+ */
+public class Batch {
+    private static final Logger LOGGER = LoggerFactory.getLogger(Batch.class);
+
+    private final Request defaults;
+    private final int workers;
+
+    public Batch(Request defaults, int workers) {
+        if(workers < 1) {
+            throw new IllegalArgumentException("workers should be at least 1, got " + workers);
+        }
+        this.defaults = defaults;
+        this.workers = workers;
+    }
+
+    public void run(Reader in, final PrintStream out) throws IOException, InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(workers);
+        final Semaphore inFlight = new Semaphore(workers * 2);
+        BufferedReader reader = new BufferedReader(in);
+        try {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if(line.trim().isEmpty()) {
+                    continue;
+                }
+
+                final int number = lineNumber;
+                final String text = line;
+                inFlight.acquire();
+                try {
+                    executor.execute(new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                print(out, process(number, text));
+                            } finally {
+                                inFlight.release();
+                            }
+                        }
+                    });
+                } catch (RuntimeException e) {
+                    inFlight.release();
+                    throw e;
+                }
+            }
+        } finally {
+            executor.shutdown();
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            LOGGER.info("input cache: " + InputCache.stats());
+            if(QArt.getResultCache() != null) {
+                LOGGER.info("result cache: " + QArt.getResultCache().stats());
+            }
+        }
+    }
+
+    private JsonObject process(int lineNumber, String line) {
+        JsonObject result = new JsonObject();
+        result.addProperty("line", lineNumber);
+        long start = System.currentTimeMillis();
+        try {
+            JsonObject json = JsonParser.parseString(line).getAsJsonObject();
+            if(json.has("id")) {
+                result.add("id", json.get("id"));
+            }
+            Request request = toRequest(defaults, json);
+            result.addProperty("output", request.getOutput());
+
+            QArt.write(request);
+
+            result.addProperty("status", "ok");
+        } catch (Exception e) {
+            LOGGER.warn("request at line " + lineNumber + " failed", e);
+            result.addProperty("status", "error");
+            result.addProperty("error", String.valueOf(e.getMessage()));
+        }
+        result.addProperty("millis", System.currentTimeMillis() - start);
+
+        return result;
+    }
+
+    private static void print(PrintStream out, JsonObject result) {
+        String text = result.toString();
+        synchronized (out) {
+            out.println(text);
+            out.flush();
+        }
+    }
+
+    /**
+     * Overrides a copy of defaults with the fields of json, string values are parsed as needed.
+     */
+    static Request toRequest(Request defaults, JsonObject json) {
+        Request request = new Request(defaults);
+
+        //input
+        if(json.has("input")) request.setInput(json.get("input").getAsString());
+        if(json.has("url")) request.setUrl(json.get("url").getAsString());
+
+        //QR code
+        if(json.has("version")) request.setVersion(QArt.parseAuto(json.get("version").getAsString()));
+        if(json.has("autoVersions")) request.setAutoVersions(json.get("autoVersions").getAsInt());
+        if(json.has("mask")) request.setMask(QArt.parseAuto(json.get("mask").getAsString()));
+        if(json.has("quiet")) request.setQuietZone(json.get("quiet").getAsInt());
+        if(json.has("rotation")) request.setRotation(QArt.parseAuto(json.get("rotation").getAsString()));
+        if(json.has("size")) request.setSize(json.get("size").getAsInt());
+        if(json.has("colorBlack")) request.setColorBlack(QArt.parseColor(json.get("colorBlack").getAsString()));
+        if(json.has("colorWhite")) request.setColorWhite(QArt.parseColor(json.get("colorWhite").getAsString()));
+
+        //how to generate QR code
+        if(json.has("randControl")) request.setRandControl(json.get("randControl").getAsBoolean());
+        if(json.has("seed")) request.setSeed(json.get("seed").getAsLong());
+        if(json.has("dither")) request.setDither(json.get("dither").getAsBoolean());
+        if(json.has("onlyData")) request.setOnlyDataBits(json.get("onlyData").getAsBoolean());
+        if(json.has("saveControl")) request.setSaveControl(json.get("saveControl").getAsBoolean());
+
+        //output image
+        if(json.has("marginTop")) request.setMarginTop(optionalInt(json.get("marginTop")));
+        if(json.has("marginBottom")) request.setMarginBottom(optionalInt(json.get("marginBottom")));
+        if(json.has("marginLeft")) request.setMarginLeft(optionalInt(json.get("marginLeft")));
+        if(json.has("marginRight")) request.setMarginRight(optionalInt(json.get("marginRight")));
+        if(json.has("width")) request.setWidth(json.get("width").getAsInt());
+        if(json.has("height")) request.setHeight(json.get("height").getAsInt());
+        if(json.has("format")) request.setFormat(json.get("format").getAsString());
+        if(json.has("output")) request.setOutput(json.get("output").getAsString());
+
+        return request;
+    }
+
+    private static Integer optionalInt(JsonElement element) {
+        return element.isJsonNull() ? null : element.getAsInt();
+    }
+}
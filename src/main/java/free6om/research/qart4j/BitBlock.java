@@ -1,84 +1,91 @@
 package free6om.research.qart4j;
 
-import com.google.zxing.common.reedsolomon.ReedSolomonEncoder;
-
-import java.util.Arrays;
-
 /**
  * Created by free6om on 7/21/15.
  */
 public class BitBlock {
     private int numberOfDataBytes;
     private int numberOfCheckBytes;
+    // block bytes are kept packed, blockBytes is refreshed from them on demand
+    private long[] block;
     private byte[] blockBytes;
-    private byte[][] maskMatrix;
+    private boolean blockBytesDirty;
+    // shared, read only
+    private BitRows basis;
+    private BitRows maskMatrix;
     private int maskIndex;
-    private ReedSolomonEncoder encoder;
+    private byte[] checkBytes;
     private byte[] primaryDataBytes;
     private int primaryDataIndex;
     private byte[] primaryCheckBytes;
     private int primaryCheckIndex;
 
-    public BitBlock(int numberOfDataBytes, int numberOfCheckBytes, ReedSolomonEncoder encoder, byte[] primaryDataBytes, int primaryDataIndex, byte[] primaryCheckBytes, int primaryCheckIndex) throws QArtException {
+    public BitBlock(int numberOfDataBytes, int numberOfCheckBytes, byte[] primaryDataBytes, int primaryDataIndex, byte[] primaryCheckBytes, int primaryCheckIndex) throws QArtException {
         this.numberOfDataBytes = numberOfDataBytes;
         this.numberOfCheckBytes = numberOfCheckBytes;
-        this.encoder = encoder;
+        this.checkBytes = new byte[numberOfCheckBytes];
         this.blockBytes = new byte[numberOfDataBytes + numberOfCheckBytes];
         this.primaryDataBytes = primaryDataBytes;
         this.primaryDataIndex = primaryDataIndex;
         this.primaryCheckBytes = primaryCheckBytes;
         this.primaryCheckIndex = primaryCheckIndex;
+        this.block = new long[BitRows.wordsFor(blockBytes.length * 8)];
+        this.basis = ParityBasisCache.basis(numberOfDataBytes, numberOfCheckBytes);
+        this.maskMatrix = new BitRows(basis.getNumberOfRows(), basis.getNumberOfBits());
 
+        reload();
+    }
+
+    /**
+     * Starts over from the current content of the primary bytes, with every bit free again,
+     * reusing this block's arrays.
+     */
+    public void reload() throws QArtException {
         System.arraycopy(primaryDataBytes, primaryDataIndex, blockBytes, 0, numberOfDataBytes);
-        byte[] checkBytes = ReedSolomonUtil.generateECBytes(encoder, blockBytes, 0, numberOfDataBytes, numberOfCheckBytes);
-        System.arraycopy(checkBytes, 0, blockBytes, numberOfDataBytes, numberOfCheckBytes);
+        ReedSolomonUtil.generateECBytes(blockBytes, 0, numberOfDataBytes, blockBytes, numberOfDataBytes, numberOfCheckBytes);
 
-        byte[] expectCheckBytes = new byte[numberOfCheckBytes];
-        System.arraycopy(primaryCheckBytes, primaryCheckIndex, expectCheckBytes, 0, numberOfCheckBytes);
-        if(!Arrays.equals(expectCheckBytes, checkBytes)) {
-            throw new QArtException("check data not match");
+        for(int i = 0;i < numberOfCheckBytes;i++) {
+            if(primaryCheckBytes[primaryCheckIndex + i] != blockBytes[numberOfDataBytes + i]) {
+                throw new QArtException("check data not match");
+            }
         }
 
-        this.maskMatrix = new byte[numberOfDataBytes*8][numberOfDataBytes + numberOfCheckBytes];
-        this.maskIndex = this.maskMatrix.length;
-        for(int i = 0;i < numberOfDataBytes*8;i++) {
-            for(int j = 0;j < numberOfDataBytes + numberOfCheckBytes;j++) {
-                maskMatrix[i][j] = 0;
-            }
+        BitRows.pack(blockBytes, 0, blockBytes.length, block);
+        blockBytesDirty = false;
 
-            maskMatrix[i][i/8] = (byte) (1 << (7 - i%8));
-            checkBytes = ReedSolomonUtil.generateECBytes(encoder, maskMatrix[i], 0, numberOfDataBytes, numberOfCheckBytes);
-            System.arraycopy(checkBytes, 0, maskMatrix[i], numberOfDataBytes, numberOfCheckBytes);
-        }
+        maskMatrix.copyFrom(basis);
+        this.maskIndex = this.maskMatrix.getNumberOfRows();
     }
 
     public byte[] getBlockBytes() {
+        if(blockBytesDirty) {
+            BitRows.unpack(block, blockBytes, 0, blockBytes.length);
+            blockBytesDirty = false;
+        }
         return blockBytes;
     }
 
     public void check() throws QArtException {
-        byte[] checkBytes = ReedSolomonUtil.generateECBytes(encoder, blockBytes, 0, numberOfDataBytes, numberOfCheckBytes);
-        byte[] expectCheckBytes = new byte[numberOfCheckBytes];
-        System.arraycopy(blockBytes, numberOfDataBytes, expectCheckBytes, 0, numberOfCheckBytes);
-
-        if(!Arrays.equals(expectCheckBytes, checkBytes)) {
-            throw new QArtException("ecc mismatch");
+        byte[] bytes = getBlockBytes();
+        ReedSolomonUtil.generateECBytes(bytes, 0, numberOfDataBytes, checkBytes, 0, numberOfCheckBytes);
+        for(int i = 0;i < numberOfCheckBytes;i++) {
+            if(bytes[numberOfDataBytes + i] != checkBytes[i]) {
+                throw new QArtException("ecc mismatch");
+            }
         }
     }
 
     public void reset(int index, byte value) throws QArtException {
-        if (((blockBytes[index/8]>>(7-index&7))&1) == (value&1)) {
+        if ((BitRows.get(block, index) ? 1 : 0) == (value&1)) {
             // already has desired bit
             return;
         }
 
-        for(int i = this.maskIndex;i < this.maskMatrix.length;i++) {
-            byte[] row = this.maskMatrix[i];
-            if((row[index/8]&(1<<(7-index&7))) != 0) {
-                for(int j = 0;j < row.length;j++) {
-                    blockBytes[j] ^= (value&1);
-                }
-
+        // rows that have already been used
+        for(int i = this.maskIndex;i < maskMatrix.getNumberOfRows();i++) {
+            if(maskMatrix.get(i, index)) {
+                maskMatrix.xorInto(block, i);
+                blockBytesDirty = true;
                 return;
             }
         }
@@ -89,21 +96,19 @@ public class BitBlock {
     public boolean canSet(int index, byte value) throws QArtException {
         boolean found = false;
         for(int j = 0;j < maskIndex;j++) {
-            if((maskMatrix[j][index/8]&(1<<(7-index&7))) == 0) {
+            if(!maskMatrix.get(j, index)) {
                 continue;
             }
 
             if(!found) {
                 found = true;
                 if(j != 0) {
-                    exchangeRow(maskMatrix, 0, j);
+                    maskMatrix.swap(0, j);
                 }
                 continue;
             }
 
-            for(int k = 0;k < maskMatrix[j].length;k++) {
-                maskMatrix[j][k] ^= maskMatrix[0][k];
-            }
+            maskMatrix.xor(j, 0);
         }
 
         if(!found) {
@@ -111,33 +116,25 @@ public class BitBlock {
         }
 
         // Subtract from saved-away rows too.
-        byte[] target = maskMatrix[0];
-        for(int i = maskIndex;i < maskMatrix.length;i++) {
-            byte[] row = maskMatrix[i];
-            if((row[index/8]&(1<<(7-index&7))) == 0) {
-                continue;
-            }
-            for(int k = 0;k < row.length;k++) {
-                row[k] ^= target[k];
+        for(int i = maskIndex;i < maskMatrix.getNumberOfRows();i++) {
+            if(maskMatrix.get(i, index)) {
+                maskMatrix.xor(i, 0);
             }
         }
 
         // Found a row with bit #bi == 1 and cut that bit from all the others.
         // Apply to data and remove from m.
-        if(((blockBytes[index/8]>>(7-index&7))&1) != (value&1)) {
-            for(int j = 0;j < target.length;j++) {
-                byte v = target[j];
-                blockBytes[j] ^= v;
-            }
+        if((BitRows.get(block, index) ? 1 : 0) != (value&1)) {
+            maskMatrix.xorInto(block, 0);
+            blockBytesDirty = true;
         }
 
         this.check();
-        exchangeRow(maskMatrix, 0, maskIndex - 1);
+        maskMatrix.swap(0, maskIndex - 1);
         maskIndex--;
 
         for(int i = 0;i < maskIndex;i++) {
-            byte[] row = maskMatrix[i];
-            if((row[index/8]&(1<<(7-index&7))) != 0) {
+            if(maskMatrix.get(i, index)) {
                 throw new QArtException("did not reduce");
             }
         }
@@ -152,11 +149,4 @@ public class BitBlock {
         System.arraycopy(blockBytes, 0, primaryDataBytes, primaryDataIndex, numberOfDataBytes);
         System.arraycopy(blockBytes, numberOfDataBytes, primaryCheckBytes, primaryCheckIndex, numberOfCheckBytes);
     }
-
-    private void exchangeRow(byte[][] matrix, int i, int j) {
-        byte[] tmp = new byte[matrix[i].length];
-        System.arraycopy(maskMatrix[i], 0, tmp, 0, tmp.length);
-        System.arraycopy(maskMatrix[j], 0, maskMatrix[i], 0, maskMatrix[i].length);
-        System.arraycopy(tmp, 0, maskMatrix[j], 0, tmp.length);
-    }
 }
@@ -0,0 +1,134 @@
+package free6om.research.qart4j;
+
+import java.util.Arrays;
+
+/**
+ * A matrix over GF(2) whose rows are packed into longs, most significant bit first:
+ * bit i of a row lives in word i/64 at bit position 63 - i%64, so byte j of a row is
+ * byte j%8 (counting from the top) of word j/8, the same order {@link Bits} uses.
+ *
+ * Rows are reached through an index table, so exchanging two rows swaps two ints
+ * and never touches or allocates row storage.
+ */
+public class BitRows {
+    private final int numberOfRows;
+    private final int numberOfBits;
+    private final int words;
+    private final long[] data;
+    private final int[] rowStart;
+
+    public BitRows(int numberOfRows, int numberOfBits) {
+        this.numberOfRows = numberOfRows;
+        this.numberOfBits = numberOfBits;
+        this.words = wordsFor(numberOfBits);
+        this.data = new long[numberOfRows * words];
+        this.rowStart = new int[numberOfRows];
+        for(int i = 0;i < numberOfRows;i++) {
+            rowStart[i] = i * words;
+        }
+    }
+
+    public BitRows(BitRows other) {
+        this.numberOfRows = other.numberOfRows;
+        this.numberOfBits = other.numberOfBits;
+        this.words = other.words;
+        this.data = other.data.clone();
+        this.rowStart = other.rowStart.clone();
+    }
+
+    /**
+     * Overwrites this matrix with other, which must have the same shape.
+     */
+    public void copyFrom(BitRows other) {
+        if(other.numberOfRows != numberOfRows || other.numberOfBits != numberOfBits) {
+            throw new IllegalArgumentException("shape mismatch");
+        }
+        System.arraycopy(other.data, 0, data, 0, data.length);
+        System.arraycopy(other.rowStart, 0, rowStart, 0, rowStart.length);
+    }
+
+    public int getNumberOfRows() {
+        return numberOfRows;
+    }
+
+    public int getNumberOfBits() {
+        return numberOfBits;
+    }
+
+    public int getWords() {
+        return words;
+    }
+
+    public boolean get(int row, int bit) {
+        return (data[rowStart[row] + (bit >>> 6)] & (1L << (~bit & 63))) != 0;
+    }
+
+    public void set(int row, int bit) {
+        data[rowStart[row] + (bit >>> 6)] |= 1L << (~bit & 63);
+    }
+
+    public void clear() {
+        Arrays.fill(data, 0L);
+    }
+
+    /**
+     * Overwrites {@code length} bytes of a row, starting at byte {@code position} of the row.
+     */
+    public void setBytes(int row, int position, byte[] bytes, int offset, int length) {
+        int start = rowStart[row];
+        for(int i = 0;i < length;i++) {
+            int j = position + i;
+            int shift = (~j & 7) << 3;
+            int w = start + (j >>> 3);
+            data[w] = (data[w] & ~(0xFFL << shift)) | ((long) (bytes[offset + i] & 0xFF) << shift);
+        }
+    }
+
+    public void swap(int i, int j) {
+        int tmp = rowStart[i];
+        rowStart[i] = rowStart[j];
+        rowStart[j] = tmp;
+    }
+
+    /**
+     * row[dst] ^= row[src]
+     */
+    public void xor(int dst, int src) {
+        int d = rowStart[dst];
+        int s = rowStart[src];
+        for(int k = 0;k < words;k++) {
+            data[d + k] ^= data[s + k];
+        }
+    }
+
+    /**
+     * target ^= row, where target is packed the same way as a row.
+     */
+    public void xorInto(long[] target, int row) {
+        int s = rowStart[row];
+        for(int k = 0;k < words;k++) {
+            target[k] ^= data[s + k];
+        }
+    }
+
+    public static int wordsFor(int numberOfBits) {
+        return (numberOfBits + 63) >>> 6;
+    }
+
+    public static boolean get(long[] packed, int bit) {
+        return (packed[bit >>> 6] & (1L << (~bit & 63))) != 0;
+    }
+
+    public static void pack(byte[] bytes, int offset, int length, long[] packed) {
+        Arrays.fill(packed, 0L);
+        for(int i = 0;i < length;i++) {
+            packed[i >>> 3] |= (long) (bytes[offset + i] & 0xFF) << ((~i & 7) << 3);
+        }
+    }
+
+    public static void unpack(long[] packed, byte[] bytes, int offset, int length) {
+        for(int i = 0;i < length;i++) {
+            bytes[offset + i] = (byte) (packed[i >>> 3] >>> ((~i & 7) << 3));
+        }
+    }
+}
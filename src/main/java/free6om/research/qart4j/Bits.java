@@ -1,30 +1,45 @@
 package free6om.research.qart4j;
 
-import com.google.zxing.common.reedsolomon.GenericGF;
-import com.google.zxing.common.reedsolomon.ReedSolomonEncoder;
-
 import java.util.Arrays;
 
 /**
  * Created by free6om on 7/20/15.
+ *
+ * Bits are collected in a 64 bit accumulator and moved to the byte array a whole byte at a time,
+ * the last {@code pending} bits appended live in the low bits of the accumulator only.
  */
 public class Bits {
     private byte[] bits;
     private int size;
+    private long accumulator;
+    private int pending;
 
     public Bits() {
         this.bits = new byte[1];
         this.size = 0;
     }
 
+    /**
+     * Sized for the data and check bytes of version, so encoding into it never grows the array.
+     */
+    public Bits(Version version) {
+        this.bits = new byte[Version.VERSION_INFOS[version.getVersion()].bytes];
+        this.size = 0;
+    }
+
     public Bits(byte[] bits, int size) {
         this.bits = bits;
         this.size = size;
+        this.pending = size & 0x07;
+        if(pending != 0) {
+            this.accumulator = (bits[size / 8] & 0xFF) >>> (8 - pending);
+        }
     }
 
     public void reset() {
-        Arrays.fill(this.bits, (byte) 0);
         this.size = 0;
+        this.accumulator = 0;
+        this.pending = 0;
     }
 
     public int getSize() {
@@ -35,20 +50,23 @@ public class Bits {
         if(size % 8 != 0) {
             throw new QArtException("bits size error");
         }
+        flush();
+        if(bits.length != size / 8) {
+            bits = Arrays.copyOf(bits, size / 8);
+        }
 
         return bits;
     }
 
     public boolean get(int i) {
+        if(i >= size - pending) {
+            return (accumulator >>> (size - 1 - i) & 1) != 0;
+        }
         return (bits[i / 8] & (1 << (7 - i & 0x07))) != 0;
     }
 
     public void append(boolean bit) {
-        ensureCapacity(size + 1);
-        if (bit) {
-            bits[size / 8] |= 1 << (7 - size & 0x07);
-        }
-        size++;
+        write(bit ? 1 : 0, 1);
     }
 
     /**
@@ -63,18 +81,57 @@ public class Bits {
         if (numBits < 0 || numBits > 32) {
             throw new IllegalArgumentException("Num bits must be between 0 and 32");
         }
-        ensureCapacity(size + numBits);
-        for (int numBitsLeft = numBits; numBitsLeft > 0; numBitsLeft--) {
-            append(((value >> (numBitsLeft - 1)) & 0x01) == 1);
+        if (pending + numBits > 64) {
+            flush();
+        }
+        accumulator = accumulator << numBits | value & ((1L << numBits) - 1);
+        pending += numBits;
+        size += numBits;
+    }
+
+    /**
+     * Appends length bytes of data, 8 bits each, copied straight into place when the bits so
+     * far end on a byte boundary.
+     */
+    public void write(byte[] data, int offset, int length) {
+        if ((size & 0x07) == 0) {
+            flush();
+            ensureCapacity(size + length*8);
+            System.arraycopy(data, offset, bits, size / 8, length);
+            size += length*8;
+            return;
+        }
+
+        int end = offset + length;
+        int i = offset;
+        for (;i + 4 <= end;i += 4) {
+            write((data[i] & 0xFF) << 24 | (data[i+1] & 0xFF) << 16 | (data[i+2] & 0xFF) << 8 | data[i+3] & 0xFF, 32);
+        }
+        for (;i < end;i++) {
+            write(data[i], 8);
         }
     }
 
     public void append(Bits other) {
-        int otherSize = other.size;
-        ensureCapacity(size + otherSize);
-        for (int i = 0; i < otherSize; i++) {
-            append(other.get(i));
+        if ((size & 0x07) == 0) {
+            flush();
+        }
+        long otherAccumulator = other.accumulator;
+        int otherPending = other.pending;
+        int otherBytes = (other.size - otherPending) / 8;
+        if (pending == 0) {
+            ensureCapacity(size + otherBytes*8);
+            System.arraycopy(other.bits, 0, bits, size / 8, otherBytes);
+            size += otherBytes*8;
+        } else {
+            write(other.bits, 0, otherBytes);
+        }
+
+        if (otherPending > 32) {
+            write((int) (otherAccumulator >>> 32), otherPending - 32);
+            otherPending = 32;
         }
+        write((int) otherAccumulator, otherPending);
     }
 
     public void pad(int n) {
@@ -90,14 +147,15 @@ public class Bits {
             int shift = 8 - this.size & 0x07;
             n -= shift;
             this.write(0, shift);
+            // byte aligned from here, the pad bytes go straight into the array
+            flush();
             int pad = n / 8;
-            for (int i = 0; i < pad; i += 2) {
-                this.write(0xec, 8);
-                if (i+1 >= pad) {
-                    break;
-                }
-                this.write(0x11, 8);
+            ensureCapacity(size + pad*8);
+            int start = size / 8;
+            for (int i = 0; i < pad; i++) {
+                bits[start + i] = (byte) ((i & 1) == 0 ? 0xec : 0x11);
             }
+            size += pad*8;
         }
     }
 
@@ -110,24 +168,19 @@ public class Bits {
         if (this.size != numberOfDataBytes*8) {
             throw new IllegalArgumentException("qr: too much data");
         }
+        flush();
 
         Version.VersionInfo versionInfo = Version.VERSION_INFOS[version.getVersion()];
         Version.VersionLevelInfo levelInfo = versionInfo.levelInfos[level.ordinal()];
         int numberOfDataBytesPerBlock = numberOfDataBytes / levelInfo.numberOfBlocks;
         int numberOfExtraBytes = numberOfDataBytes % levelInfo.numberOfBlocks;
-        ReedSolomonEncoder reedSolomonEncoder = new ReedSolomonEncoder(GenericGF.QR_CODE_FIELD_256);
+        // check bytes are written straight after the data, one block after another
+        ensureCapacity(versionInfo.bytes * 8);
 
-        int dataIndex = 0;
-        for(int i = 0;i < levelInfo.numberOfBlocks;i++){
-            if(i == levelInfo.numberOfBlocks - numberOfExtraBytes) {
-                numberOfDataBytesPerBlock++;
-            }
-
-            byte[] checkBytes = ReedSolomonUtil.generateECBytes(reedSolomonEncoder, this.bits, dataIndex, numberOfDataBytesPerBlock, levelInfo.numberOfCheckBytesPerBlock);
-            dataIndex += numberOfDataBytesPerBlock;
-
-            this.append(new Bits(checkBytes, levelInfo.numberOfCheckBytesPerBlock * 8));
-        }
+        ReedSolomonUtil.generateBlockECBytes(this.bits, 0, levelInfo.numberOfBlocks,
+                numberOfDataBytesPerBlock, numberOfExtraBytes,
+                this.bits, this.size/8, levelInfo.numberOfCheckBytesPerBlock);
+        this.size += levelInfo.numberOfBlocks * levelInfo.numberOfCheckBytesPerBlock * 8;
 
         if(this.size/8 != versionInfo.bytes) {
             throw new QArtException("qr: internal error");
@@ -135,9 +188,22 @@ public class Bits {
 
     }
 
+    // moves every whole byte out of the accumulator
+    private void flush() {
+        if (pending < 8) {
+            return;
+        }
+        ensureCapacity(size - (pending & 0x07));
+        int index = (size - pending) / 8;
+        while (pending >= 8) {
+            pending -= 8;
+            bits[index++] = (byte) (accumulator >>> pending);
+        }
+    }
+
     private void ensureCapacity(int size) {
         if (size > bits.length * 8) {
-            byte[] newBits = makeArray(size);
+            byte[] newBits = makeArray(Math.max(size, bits.length * 16));
             System.arraycopy(bits, 0, newBits, 0, bits.length);
             this.bits = newBits;
         }
@@ -1,15 +1,14 @@
 package free6om.research.qart4j;
 
-import com.google.zxing.common.reedsolomon.GenericGF;
-import com.google.zxing.common.reedsolomon.ReedSolomonEncoder;
-import org.apache.commons.imaging.ImageReadException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.IOException;
+import java.nio.CharBuffer;
 import java.util.Arrays;
-import java.util.Comparator;
-import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Created by free6om on 7/21/15.
@@ -17,7 +16,13 @@ import java.util.Random;
 public class Image {
     private static final Logger LOGGER = LoggerFactory.getLogger(Image.class);
 
-    private int[][] target;
+    private LumaPlane target;
+    // summed area tables of target and target^2, (width + 1) x (height + 1),
+    // entry (x, y) holds the sum over columns [0, x) of rows [0, y)
+    private int targetWidth;
+    private int targetHeight;
+    private long[] sum;
+    private long[] sumOfSquares;
     private int divider;
     private int dx, dy;
     private String URL;
@@ -35,8 +40,21 @@ public class Image {
     private boolean saveControl;
     private byte[] control;
 
+    // blocks are solved on this pool, null solves them one after another on the calling thread
+    private ForkJoinPool pool = ForkJoinPool.commonPool();
+
+    // target of every module of the current version, shared by all encodes of this image
+    private volatile ModuleTargets moduleTargets;
+    // attempts the last finished encode took
+    private volatile int lastAttempts;
+
     public Image(int[][] target, int dx, int dy, int version) {
+        this(LumaPlane.of(target), dx, dy, version);
+    }
+
+    public Image(LumaPlane target, int dx, int dy, int version) {
         this.target = target;
+        integrate();
         this.dx = dx;
         this.dy = dy;
         this.version = version;
@@ -44,8 +62,15 @@ public class Image {
 
     public Image(int[][] target, int dx, int dy, String URL,
                  int version, int mask, int rotation,
-                 boolean randControl, long seed, boolean dither, boolean onlyDataBits, boolean saveControl) throws IOException, ImageReadException {
+                 boolean randControl, long seed, boolean dither, boolean onlyDataBits, boolean saveControl) {
+        this(LumaPlane.of(target), dx, dy, URL, version, mask, rotation, randControl, seed, dither, onlyDataBits, saveControl);
+    }
+
+    public Image(LumaPlane target, int dx, int dy, String URL,
+                 int version, int mask, int rotation,
+                 boolean randControl, long seed, boolean dither, boolean onlyDataBits, boolean saveControl) {
         this.target = target;
+        integrate();
         this.dx = dx;
         this.dy = dy;
         this.URL = URL;
@@ -64,19 +89,28 @@ public class Image {
     }
 
     public void setTarget(int[][] target) {
+        setTarget(LumaPlane.of(target));
+    }
+
+    public void setTarget(LumaPlane target) {
         this.target = target;
+        integrate();
+        this.moduleTargets = null;
     }
 
     public void setDivider(int divider) {
         this.divider = divider;
+        this.moduleTargets = null;
     }
 
     public void setDx(int dx) {
         this.dx = dx;
+        this.moduleTargets = null;
     }
 
     public void setDy(int dy) {
         this.dy = dy;
+        this.moduleTargets = null;
     }
 
     public void setURL(String URL) {
@@ -119,353 +153,268 @@ public class Image {
         this.control = control;
     }
 
+    public void setPool(ForkJoinPool pool) {
+        this.pool = pool;
+    }
+
+    public ForkJoinPool getPool() {
+        return pool;
+    }
+
+    int getLastAttempts() {
+        return lastAttempts;
+    }
+
+    public int getMask() {
+        return mask;
+    }
+
+    public int getRotation() {
+        return rotation;
+    }
+
     public Target target(int x, int y) {
-        int tx = x + dx;
-        int ty = y + dy;
-        if (ty < 0 || ty >= target.length || tx < 0 || tx >= target[ty].length) {
+        if (!hasTarget(x, y)) {
             return new Target((byte) 255, -1);
         }
 
-        int v0 = target[ty][tx];
-        if (v0 < 0) {
-            return new Target((byte) 255, -1);
-        }
+        return new Target((byte) target.get(x + dx, y + dy), contrast(x, y));
+    }
 
-        byte targ = (byte) v0;
+    private boolean hasTarget(int x, int y) {
+        int tx = x + dx;
+        int ty = y + dy;
+        return ty >= 0 && ty < targetHeight && tx >= 0 && tx < targetWidth && !target.isTransparent(tx, ty);
+    }
 
-        int n = 0;
-        long sum = 0;
-        long sumSequence = 0;
+    // variance of the target over the 11x11 window around (x, y), clipped to the target
+    private int contrast(int x, int y) {
+        int tx = x + dx;
+        int ty = y + dy;
         int del = 5;
-        for (int dy = -del; dy <= del; dy++) {
-            for (int dx = -del; dx <= del; dx++) {
-                if (0 <= ty+dy && ty+dy < this.target.length && 0 <= tx+dx && tx+dx < this.target[ty+dy].length) {
-                    int v = this.target[ty+dy][tx+dx];
-                    sum += v;
-                    sumSequence += v * v;
-                    n++;
-                }
+        int x0 = Math.max(tx - del, 0);
+        int x1 = Math.min(tx + del + 1, targetWidth);
+        int y0 = Math.max(ty - del, 0);
+        int y1 = Math.min(ty + del + 1, targetHeight);
+
+        int stride = targetWidth + 1;
+        int topLeft = y0*stride + x0;
+        int topRight = y0*stride + x1;
+        int bottomLeft = y1*stride + x0;
+        int bottomRight = y1*stride + x1;
+        long windowSum = sum[bottomRight] - sum[bottomLeft] - sum[topRight] + sum[topLeft];
+        long windowSumOfSquares = sumOfSquares[bottomRight] - sumOfSquares[bottomLeft] - sumOfSquares[topRight] + sumOfSquares[topLeft];
+        int n = (x1 - x0) * (y1 - y0);
+
+        int avg = (int) (windowSum / n);
+        return (int) (windowSumOfSquares/n - avg*avg);
+    }
+
+    private void integrate() {
+        targetHeight = target.getHeight();
+        targetWidth = target.getWidth();
+        int stride = targetWidth + 1;
+        sum = new long[stride * (targetHeight + 1)];
+        sumOfSquares = new long[stride * (targetHeight + 1)];
+        for (int y = 0; y < targetHeight; y++) {
+            long rowSum = 0;
+            long rowSumOfSquares = 0;
+            for (int x = 0; x < targetWidth; x++) {
+                int v = target.get(x, y);
+                rowSum += v;
+                rowSumOfSquares += v * v;
+                sum[(y+1)*stride + x+1] = sum[y*stride + x+1] + rowSum;
+                sumOfSquares[(y+1)*stride + x+1] = sumOfSquares[y*stride + x+1] + rowSumOfSquares;
             }
         }
+    }
 
-        int avg = (int) (sum / n);
-        int contrast = (int) (sumSequence/n - avg*avg);
-        return new Target(targ, contrast);
+    public QRCode encode() throws QArtException {
+        return encode(mask, rotation, null);
+    }
+
+    /**
+     * Sum over all modules over the target of how far the target is from the divider, for the
+     * modules whose color is on the wrong side of it. Lower is closer to the target.
+     */
+    public long score(QRCode code) {
+        return score(code, Long.MAX_VALUE);
     }
 
-    public void rotate(Plan plan, int rotation) {
-        if(rotation == 0) {
-            return;
+    /**
+     * {@link #score(QRCode)} divided by the score of a code with every module on the wrong side,
+     * so codes of different versions compare: 0 matches the target, 1 is its negative.
+     */
+    public double relativeScore(QRCode code) {
+        int[] weights = moduleTargets(code.getSize()).weight;
+        long total = 0;
+        for(int weight : weights) {
+            total += Math.abs(weight);
         }
 
-        int n = plan.getPixels().length;
-        Pixel[][] pixels = new Pixel[n][n];
+        return total == 0 ? 0 : (double) score(code) / total;
+    }
 
-        switch (rotation) {
-            case 1:
-                for(int y = 0;y < n;y++) {
-                    for(int x = 0;x < n;x++) {
-                        pixels[y][x] = plan.getPixels()[x][n - 1 - y];
-                    }
-                }
-                break;
-            case 2:
-                for(int y = 0;y < n;y++) {
-                    for(int x = 0;x < n;x++) {
-                        pixels[y][x] = plan.getPixels()[n - 1 - y][n - 1 - x];
-                    }
-                }
-                break;
-            case 3:
-                for(int y = 0;y < n;y++) {
-                    for(int x = 0;x < n;x++) {
-                        pixels[y][x] = plan.getPixels()[n - 1 -x][y];
-                    }
-                }
-                break;
+    /**
+     * Whether url, with the separator encode appends, leaves room for data bits in a code of
+     * the given version, worked out from the version table without building a plan.
+     */
+    public static boolean fits(String url, int version) {
+        if(version < Version.MIN_VERSION || version > Version.MAX_VERSION) {
+            return false;
         }
+        Version v = new Version(version);
+        int headSize = new Raw(url + "#").availableBits(v) + new Number("").availableBits(v);
 
-        plan.setPixels(pixels);
+        return headSize <= v.dataBytes(Level.L)*8;
     }
 
-    public QRCode encode() throws QArtException {
-        Plan plan = Plan.newPlan(new Version(version), Level.L, new Mask(mask));
+    /**
+     * @return the score of code, or any value above limit once the score is known to exceed it
+     */
+    long score(QRCode code, long limit) {
+        int size = code.getSize();
+        int[] weights = moduleTargets(size).weight;
+        long score = 0;
+        for(int y = 0;y < size;y++) {
+            for(int x = 0;x < size;x++) {
+                score += penalty(weights[y*size + x], code.isBlack(x, y));
+            }
+            if(score > limit) {
+                break;
+            }
+        }
 
-        rotate(plan, rotation);
+        return score;
+    }
 
-        Random random = new Random(seed);
+    /**
+     * Encodes with the given mask and rotation, they may differ from this image's own so
+     * several encodes can share it.
+     *
+     * @param best score to beat, null to always finish
+     * @return null if the modules fixed by the plan and the URL alone score worse than best
+     */
+    QRCode encode(int mask, int rotation, AtomicLong best) throws QArtException {
+        if(version < Version.MIN_VERSION || version > Version.MAX_VERSION) {
+            throw new VersionException("wrong qr version: " + version);
+        }
+        if(!fits(URL, version)) {
+            throw new QArtException("cannot encode URL into available bits");
+        }
+        // shared with other encodes, must not be modified
+        Plan plan = PlanCache.getPlan(new Version(version), Level.L, new Mask(mask), rotation);
+
+        SplitMix random = new SplitMix(seed);
 
         // QR parameters.
         int numberOfDataBytesPerBlock = plan.getNumberOfDataBytes() / plan.getNumberOfBlocks();
         int numberOfCheckBytesPerBlock = plan.getNumberOfCheckBytes() / plan.getNumberOfBlocks();
         int numberOfExtraBytes = plan.getNumberOfDataBytes() - numberOfDataBytesPerBlock * plan.getNumberOfBlocks();
-        ReedSolomonEncoder encoder = new ReedSolomonEncoder(GenericGF.QR_CODE_FIELD_256);
 
         // Build information about pixels, indexed by data/check bit number.
-        PixelInfo[] pixelByOffset = new PixelInfo[(plan.getNumberOfDataBytes() + plan.getNumberOfCheckBytes()) * 8];
-        boolean[][] expect = new boolean[plan.getPixels().length][plan.getPixels().length];
-        Pixel[][] pixels = plan.getPixels();
-        for(int y = 0;y < pixels.length;y++) {
-            for(int x = 0;x < pixels[y].length;x++) {
-                Pixel pixel = pixels[y][x];
-                expect[y][x] = ((pixel.getPixel()&Pixel.BLACK.getPixel()) != 0);
-
-                Target target = target(x, y);
-                if(randControl && target.contrast >= 0) {
-                    target.contrast = random.nextInt(128) + 64*((x+y)%2) + 64*((x+y)%3%2);
-                }
-                Pixel.PixelRole role = pixel.getPixelRole();
-                if(role == Pixel.PixelRole.DATA || role == Pixel.PixelRole.CHECK) {
-                    pixelByOffset[pixel.getOffset()] = new PixelInfo(x, y, new Pixel(pixel), target.target, target.contrast);
-                }
+        int size = plan.getSize();
+        int[] modules = plan.modules();
+        int[] positionByOffset = plan.positionByOffset();
+        ModuleTargets moduleTargets = moduleTargets(size);
+        PixelTable pixelTable = new PixelTable(positionByOffset.length);
+        int[] pixelX = pixelTable.getX();
+        int[] pixelY = pixelTable.getY();
+        int[] pixelByOffset = pixelTable.getPixel();
+        byte[] targets = pixelTable.getTarget();
+        int[] contrasts = pixelTable.getContrast();
+        boolean[] hardZeros = pixelTable.getHardZero();
+        BitBlock[] blockByOffset = pixelTable.getBlock();
+        int[] bitIndexByOffset = pixelTable.getBitIndex();
+        int[] attemptByOffset = pixelTable.getAttempt();
+        for(int offset = 0;offset < positionByOffset.length;offset++) {
+            int x = positionByOffset[offset] % size;
+            int y = positionByOffset[offset] / size;
+            pixelX[offset] = x;
+            pixelY[offset] = y;
+            pixelByOffset[offset] = modules[positionByOffset[offset]];
+
+            targets[offset] = moduleTargets.target[positionByOffset[offset]];
+            contrasts[offset] = moduleTargets.contrast[positionByOffset[offset]];
+            if(randControl && moduleTargets.weight[positionByOffset[offset]] != 0) {
+                contrasts[offset] = random.nextInt(128) + 64*((x+y)%2) + 64*((x+y)%3%2);
             }
         }
 
         String url = this.URL + "#";
         int errorCount;
 
-        Bits bits = new Bits();
+        Version planVersion = plan.getVersion();
+        Bits bits = new Bits(planVersion);
         // Count fixed initial data bits, prepare template URL.
-        new Raw(url).encode(bits, plan.getVersion());
-        new Number("").encode(bits, plan.getVersion());
+        Raw raw = new Raw(url);
+        raw.encode(bits, planVersion);
+        new Number("").encode(bits, planVersion);
         int headSize = bits.getSize();
         int dataBitsRemaining = plan.getNumberOfDataBytes()*8 - headSize;
         if(dataBitsRemaining < 0) {
             throw new QArtException("cannot encode URL into available bits");
         }
 
-        byte[] numbers = new byte[dataBitsRemaining/10*3];
-
-        do {
-            int nd = numberOfDataBytesPerBlock;
-            bits.reset();
-            Arrays.fill(numbers, (byte) '0');
+        char[] numbers = new char[dataBitsRemaining/10*3];
+        Number number = new Number(CharBuffer.wrap(numbers));
+        int mainDataBits = headSize + dataBitsRemaining/10*10;
+        // dither error carried to the current and the next row, with a spare column on each side
+        int[] ditherErrors = this.dither ? new int[size + 2] : null;
+        int[] nextDitherErrors = this.dither ? new int[size + 2] : null;
+
+        // Everything the loop below works on is made here, once, and reused by every attempt.
+        // bits never grows past the version's size, so data stays the same array throughout.
+        Arrays.fill(numbers, '0');
+        byte[] data = encodeData(planVersion, plan.getLevel(), bits, raw, number);
+
+        // One task per block, largest blocks first.
+        BitBlock[] bitBlocks = new BitBlock[plan.getNumberOfBlocks()];
+        BlockTask[] tasks = new BlockTask[plan.getNumberOfBlocks()];
+        int nd = numberOfDataBytesPerBlock;
+        int dataOffset = 0;
+        int checkOffset = 0;
+        for (int blockNumber = 0; blockNumber < plan.getNumberOfBlocks(); blockNumber++) {
+            if (blockNumber == plan.getNumberOfBlocks()-numberOfExtraBytes) {
+                nd++;
+            }
 
-            new Raw(url).encode(bits, plan.getVersion());
-            new Number(new String(numbers)).encode(bits, plan.getVersion());
-            bits.addCheckBytes(plan.getVersion(), plan.getLevel());
+            tasks[plan.getNumberOfBlocks() - 1 - blockNumber] = new BlockTask(plan, pixelTable, data, nd, numberOfCheckBytesPerBlock,
+                    dataOffset, checkOffset, headSize, mainDataBits);
 
-            byte[] data = bits.getBits();
+            dataOffset += nd * 8;
+            checkOffset += numberOfCheckBytesPerBlock * 8;
+        }
 
-            int dataOffset = 0;
-            int checkOffset = 0;
-            int mainDataBits = headSize + dataBitsRemaining/10*10;
+        int attempts = 0;
+        int clearedGroups = 0;
+        do {
+            attempts++;
+            if(best != null && lowerBound(plan, moduleTargets.weight, data, headSize, mainDataBits) > best.get()) {
+                return null;
+            }
 
             // Choose pixels.
-            BitBlock[] bitBlocks = new BitBlock[plan.getNumberOfBlocks()];
-            for (int blockNumber = 0; blockNumber < plan.getNumberOfBlocks(); blockNumber++) {
-                if (blockNumber == plan.getNumberOfBlocks()-numberOfExtraBytes) {
-                    nd++;
-                }
-
-                BitBlock bitBlock = new BitBlock(nd, numberOfCheckBytesPerBlock, encoder,
-                        data, dataOffset/8,
-                        data, plan.getNumberOfDataBytes() + checkOffset/8);
-                bitBlocks[blockNumber] = bitBlock;
-
-                // Determine which bits in this block we can try to edit.
-                int low = 0, high = nd*8;
-                if(low < headSize - dataOffset) {
-                    low = headSize - dataOffset;
-                    if(low > high) {
-                        low = high;
-                    }
-                }
-                if(high > mainDataBits - dataOffset) {
-                    high = mainDataBits - dataOffset;
-                    if(high < low) {
-                        high = low;
-                    }
-                }
-
-                // Preserve [0, lo) and [hi, nd*8).
-                for (int i = 0; i < low; i++) {
-                    if (!bitBlock.canSet(i, (byte) ((data[dataOffset/8 + i/8]>>(7-i&7))&1))) {
-                        throw new QArtException("cannot preserve required bits");
-                    }
-                }
-                for (int i = high; i < nd*8; i++) {
-                    if (!bitBlock.canSet(i, (byte) ((data[dataOffset/8 + i/8]>>(7-i&7))&1))) {
-                        throw new QArtException("cannot preserve required bits");
-                    }
-                }
-
-                // Can edit [lo, hi) and checksum bits to hit target.
-                // Determine which ones to try first.
-                PixelOrder[] order = new PixelOrder[(high - low) + numberOfCheckBytesPerBlock*8];
-                for(int i = 0;i < order.length;i++) {
-                    order[i] = new PixelOrder();
-                }
-                for (int i = low; i < high; i++) {
-                    order[i-low].setOffset(dataOffset + i);
-                }
-                for (int i = 0; i < numberOfCheckBytesPerBlock*8; i++) {
-                    order[high-low+i].setOffset(plan.getNumberOfDataBytes()*8 + checkOffset + i);
-                }
-                if (onlyDataBits) {
-                    order = Arrays.copyOf(order, high - low);
-                }
-                for (int i = 0;i < order.length;i++) {
-                    PixelOrder pixelOrder = order[i];
-                    pixelOrder.setPriority(pixelByOffset[pixelOrder.getOffset()].getContrast() << 8 | random.nextInt(256));
-                }
-                Arrays.sort(order, new Comparator<PixelOrder>() {
-                    @Override
-                    public int compare(PixelOrder o1, PixelOrder o2) {
-                        if(o2.getPriority() > o1.getPriority()) {
-                            return 1;
-                        }
-                        if(o2.getPriority() == o1.getPriority()) {
-                            return 0;
-                        }
-
-                        return -1;
-                    }
-                });
-
-                boolean mark = false;
-                for (int i = 0;i < order.length;i++) {
-                    PixelOrder po = order[i];
-                    PixelInfo info = pixelByOffset[po.getOffset()];
-                    int value = ((int)info.getTarget())&0xFF;
-                    if(value < this.divider) {
-                        value = 1;
-                    } else {
-                        value = 0;
-                    }
-
-                    Pixel pixel = info.getPixel();
-                    if(pixel.shouldInvert()) {
-                        value ^= 1;
-                    }
-                    if(info.isHardZero()) {
-                        value = 0;
-                    }
-
-                    int index;
-
-                    if (pixel.getPixelRole() == Pixel.PixelRole.DATA) {
-                        index = po.getOffset() - dataOffset;
-                    } else {
-                        index = po.getOffset() - plan.getNumberOfDataBytes()*8 - checkOffset + nd*8;
-                    }
-                    if (bitBlock.canSet(index, (byte) value)) {
-                        info.setBlock(bitBlock);
-                        info.setBitIndex(index);
-                        if(mark) {
-                            pixels[info.getY()][info.getX()] = Pixel.BLACK;
-                        }
-                    } else {
-//                        LOGGER.debug("can't set, i: {}, high - low: {}", i, (high - low));
-//                        if(info.isHardZero()) {
-//                            throw new QArtException("Hard zero can not set");
-//                        }
-                        if(mark) {
-                            pixels[info.getY()][info.getX()] = new Pixel(0); //todo will cause error?
-                        }
-                    }
-                }
-                bitBlock.copyOut();
-
-                boolean cheat = false;
-                for (int i = 0; i < nd*8; i++) {
-                    PixelInfo info = pixelByOffset[dataOffset+i];
-                    Pixel pixel = new Pixel(pixels[info.getY()][info.getX()]);
-                    if ((bitBlock.getBlockBytes()[i/8]&(1<<(7-i&7))) != 0) {
-                        pixel.xorPixel(Pixel.BLACK.getPixel());
-                    }
-                    expect[info.getY()][info.getX()] = ((pixel.getPixel()&Pixel.BLACK.getPixel()) != 0);
-                    if (cheat) {
-                        Pixel p = new Pixel(pixel);
-                        p.setPixel(Pixel.BLACK.getPixel());
-                        pixels[info.getY()][info.getX()] = p;
-                    }
-                }
-                for (int i = 0; i < numberOfCheckBytesPerBlock*8; i++) {
-                    PixelInfo info = pixelByOffset[plan.getNumberOfDataBytes()*8 + checkOffset + i];
-                    Pixel pixel = new Pixel(pixels[info.getY()][info.getX()]);
-
-                    if ((bitBlock.getBlockBytes()[nd+i/8]&(1<<(7-i&7))) != 0) {
-                        pixel.xorPixel(Pixel.BLACK.getPixel());
-                    }
-                    expect[info.getY()][info.getX()] = ((pixel.getPixel()&Pixel.BLACK.getPixel()) != 0);
-                    if (cheat) {
-                        Pixel p = new Pixel(pixel);
-                        p.setPixel(Pixel.BLACK.getPixel());
-                        pixels[info.getY()][info.getX()] = p;
-                    }
-                }
-
-                dataOffset += nd * 8;
-                checkOffset += numberOfCheckBytesPerBlock * 8;
+            // Every block draws from its own random generator, split off in block order,
+            // so the result doesn't depend on how the tasks get scheduled.
+            for (int i = tasks.length - 1; i >= 0; i--) {
+                tasks[i].reinitialize();
+                tasks[i].attempt = attempts;
+                random.split(tasks[i].random);
+            }
+            solveBlocks(tasks);
+            for (int i = 0; i < tasks.length; i++) {
+                bitBlocks[plan.getNumberOfBlocks() - 1 - i] = tasks[i].bitBlock;
             }
 
 
             // Pass over all pixels again, dithering.
             if (this.dither) {
-                for(int i = 0;i < pixelByOffset.length;i++) {
-                    PixelInfo info = pixelByOffset[i];
-                    info.setDitherTarget(info.getTarget());
-                }
-                for(int y = 0;y < pixels.length;y++) {
-                    Pixel[] row = pixels[y];
-                    for(int x = 0;x < row.length;x++) {
-                        Pixel pixel = row[x];
-                        Pixel.PixelRole role = pixel.getPixelRole();
-                        if (role != Pixel.PixelRole.DATA && role != Pixel.PixelRole.CHECK) {
-                            continue;
-                        }
-                        PixelInfo info = pixelByOffset[pixel.getOffset()];
-                        if (info.getBlock() == null) {
-                            // did not choose this pixel
-                            continue;
-                        }
-
-                        pixel = info.getPixel();
-
-                        byte pixelValue = 1;
-                        int grayValue = 0;
-                        int targ = info.getDitherTarget();
-
-                        if (targ >= this.divider) {
-                            // want white
-                            pixelValue = 0;
-                            grayValue = 255;
-                        }
-                        byte bitValue = pixelValue;
-                        if (pixel.shouldInvert()) {
-                            bitValue ^= 1;
-                        }
-                        if (info.isHardZero() && bitValue != 0) {
-                            bitValue ^= 1;
-                            pixelValue ^= 1;
-                            grayValue ^= 0xFF;
-                        }
-
-                        // Set pixel value as we want it.
-                        info.getBlock().reset(info.getBitIndex(), bitValue);
-
-                        int error = targ - grayValue;
-
-                        if (x+1 < row.length) {
-                            addDither(pixelByOffset, row[x+1], error*7/16);
-                        }
-//                        if (false && y+1 < pixels.length) {
-//                            if (x > 0) {
-//                                addDither(pixelByOffset, pixels[y+1][x-1], error*3/16);
-//                            }
-//                            addDither(pixelByOffset, pixels[y+1][x], error*5/16);
-//                            if (x+1 < row.length) {
-//                                addDither(pixelByOffset, pixels[y+1][x+1], error*1/16);
-//                            }
-//                        }
-                    }
-                }
-
+                dither(size, modules, moduleTargets.target, blockByOffset, bitIndexByOffset, attemptByOffset, attempts,
+                        hardZeros, ditherErrors, nextDitherErrors);
                 for(int i = 0;i < bitBlocks.length;i++) {
                     bitBlocks[i].copyOut();
                 }
-
             }
 
             errorCount = 0;
@@ -484,32 +433,30 @@ public class Image {
                     // We know the 512, 256, 128, 64, 32 bits are all set.
                     // Pick one at random to clear.  This will break some
                     // checksum bits, but so be it.
-                    LOGGER.debug("oops, i: {}, v: {}", i, v);
-                    PixelInfo info = pixelByOffset[headSize + 10*i + 3];
-                    info.setContrast(Integer.MAX_VALUE >> 8);
-                    info.setHardZero(true);
+                    contrasts[headSize + 10*i + 3] = Integer.MAX_VALUE >> 8;
+                    hardZeros[headSize + 10*i + 3] = true;
                     errorCount++;
 //                    v = 999;
                 }
-                numbers[i*3+0] = (byte) (v/100 + '0');
-                numbers[i*3+1] = (byte) (v/10%10 + '0');
-                numbers[i*3+2] = (byte) (v%10 + '0');
+                numbers[i*3+0] = (char) (v/100 + '0');
+                numbers[i*3+1] = (char) (v/10%10 + '0');
+                numbers[i*3+2] = (char) (v%10 + '0');
             }
 
+            if (errorCount > 0) {
+                clearedGroups += errorCount;
+                encodeData(planVersion, plan.getLevel(), bits, raw, number);
+            }
         } while (errorCount > 0);
-
-
-        Bits finalBits = new Bits();
-        new Raw(url).encode(finalBits, plan.getVersion());
-        new Number(new String(numbers)).encode(finalBits, plan.getVersion());
-        finalBits.addCheckBytes(plan.getVersion(), plan.getLevel());
-
-        if(!Arrays.equals(finalBits.getBits(), bits.getBits())) {
-            LOGGER.warn("mismatch\n{} {}\n{} {}\n", bits.getBits().length, bits.getBits(), finalBits.getBits().length, finalBits.getBits());
-            throw new QArtException("byte mismatch");
+        lastAttempts = attempts;
+        if (attempts > 1) {
+            // one line per encode, not one per group and attempt
+            LOGGER.debug("{} attempts, cleared a bit of {} digit groups above 999", attempts, clearedGroups);
         }
 
-        QRCode qrCode = Plan.encode(plan, new Raw(url), new Number(new String(numbers)));
+        // data now holds exactly what the digits in numbers encode to: the head and the tail
+        // were preserved and every block checked its check bytes when copying them out
+        QRCode qrCode = new QRCode(data, plan.modules(), plan.getSize());
 
 //        if m.SaveControl {
 //            m.Control = pngEncode(makeImage(req, "", "", 0, cc.Size, 4, m.Scale, func(x, y int) (rgba uint32) {
@@ -533,32 +480,361 @@ public class Image {
         return qrCode;
     }
 
-    private int calculateDivider() {
-        long sum = 0;
-        int n = 0;
-        for(int i = 0;i < this.target.length;i++) {
-            for(int j = 0;j < this.target[i].length;j++) {
-                sum += this.target[i][j];
-                n++;
+    // encodes url and numbers into bits, which must be sized for the version, and adds the check bytes
+    private static byte[] encodeData(Version version, Level level, Bits bits, Raw url, Number numbers) throws QArtException {
+        bits.reset();
+        url.encode(bits, version);
+        numbers.encode(bits, version);
+        bits.addCheckBytes(version, level);
+
+        return bits.getBits();
+    }
+
+    // score of the modules no choice of the free data bits and check bits can change
+    private static long lowerBound(Plan plan, int[] weights, byte[] data, int headSize, int mainDataBits) {
+        int[] modules = plan.modules();
+        int numberOfDataBits = plan.getNumberOfDataBytes()*8;
+        long score = 0;
+        for(int i = 0;i < modules.length;i++) {
+            int pixel = modules[i];
+            if(weights[i] == 0) {
+                continue;
+            }
+            int value = Pixel.value(pixel);
+            if(Pixel.isDataOrCheck(pixel)) {
+                int offset = Pixel.offset(pixel);
+                if(offset >= headSize && offset < mainDataBits || offset >= numberOfDataBits) {
+                    continue;
+                }
+                int bit = (data[offset/8]>>(7-offset&7))&0x1;
+                value = Pixel.shouldInvert(pixel) ? bit ^ value : bit;
+            }
+            score += penalty(weights[i], value != 0);
+        }
+
+        return score;
+    }
+
+    // weight > 0 wants black, weight < 0 wants white, 0 is off the target
+    private static long penalty(int weight, boolean black) {
+        if(weight > 0) {
+            return black ? 0 : weight;
+        }
+
+        return black ? -weight : 0;
+    }
+
+    private ModuleTargets moduleTargets(int size) {
+        ModuleTargets current = moduleTargets;
+        if(current != null && current.size == size) {
+            return current;
+        }
+
+        current = new ModuleTargets(size);
+        for(int y = 0;y < size;y++) {
+            for(int x = 0;x < size;x++) {
+                int position = y*size + x;
+                if(hasTarget(x, y)) {
+                    int value = target.get(x + dx, y + dy);
+                    current.target[position] = (byte) value;
+                    current.contrast[position] = contrast(x, y);
+                    current.weight[position] = value < divider ? divider - value + 1 : -(value - divider + 1);
+                } else {
+                    current.target[position] = (byte) 255;
+                    current.contrast[position] = -1;
+                }
+            }
+        }
+        moduleTargets = current;
+
+        return current;
+    }
+
+    private static final class ModuleTargets {
+        private final int size;
+        private final byte[] target;
+        private final int[] contrast;
+        private final int[] weight;
+
+        private ModuleTargets(int size) {
+            this.size = size;
+            this.target = new byte[size*size];
+            this.contrast = new int[size*size];
+            this.weight = new int[size*size];
+        }
+    }
+
+    private void solveBlocks(BlockTask[] tasks) throws QArtException {
+        if (tasks.length == 1 || pool == null) {
+            for (BlockTask task : tasks) {
+                task.compute();
+            }
+        } else if (ForkJoinTask.getPool() == pool) {
+            // already a worker of the pool, help with the blocks rather than block on them
+            ForkJoinTask.invokeAll(tasks);
+        } else {
+            for (BlockTask task : tasks) {
+                pool.execute(task);
+            }
+            for (BlockTask task : tasks) {
+                task.join();
+            }
+        }
+
+        for (BlockTask task : tasks) {
+            if (task.exception != null) {
+                throw task.exception;
+            }
+        }
+    }
+
+    /**
+     * @param order room for the candidate bits of the block, null to allocate it
+     * @return order, or the array allocated for it
+     */
+    private long[] solveBlock(Plan plan, PixelTable pixelTable, BitBlock bitBlock, byte[] data, int nd, int numberOfCheckBytesPerBlock,
+                              int dataOffset, int checkOffset, int headSize, int mainDataBits,
+                              SplitMix random, long[] order, int attempt) throws QArtException {
+        byte[] targets = pixelTable.getTarget();
+        int[] contrasts = pixelTable.getContrast();
+        boolean[] hardZeros = pixelTable.getHardZero();
+        int[] pixelByOffset = pixelTable.getPixel();
+        BitBlock[] blockByOffset = pixelTable.getBlock();
+        int[] bitIndexByOffset = pixelTable.getBitIndex();
+        int[] attemptByOffset = pixelTable.getAttempt();
+
+        // Determine which bits in this block we can try to edit.
+        int low = 0, high = nd*8;
+        if(low < headSize - dataOffset) {
+            low = headSize - dataOffset;
+            if(low > high) {
+                low = high;
+            }
+        }
+        if(high > mainDataBits - dataOffset) {
+            high = mainDataBits - dataOffset;
+            if(high < low) {
+                high = low;
             }
         }
 
+        // Preserve [0, lo) and [hi, nd*8).
+        for (int i = 0; i < low; i++) {
+            if (!bitBlock.canSet(i, (byte) ((data[dataOffset/8 + i/8]>>(7-i&7))&1))) {
+                throw new QArtException("cannot preserve required bits");
+            }
+        }
+        for (int i = high; i < nd*8; i++) {
+            if (!bitBlock.canSet(i, (byte) ((data[dataOffset/8 + i/8]>>(7-i&7))&1))) {
+                throw new QArtException("cannot preserve required bits");
+            }
+        }
+
+        // Can edit [lo, hi) and checksum bits to hit target.
+        // Determine which ones to try first.
+        int numberOfCandidates = (high - low) + (onlyDataBits ? 0 : numberOfCheckBytesPerBlock*8);
+        if (order == null || order.length < numberOfCandidates) {
+            order = new long[numberOfCandidates];
+        }
+        for (int i = 0; i < numberOfCandidates; i++) {
+            int offset = i < high - low ? dataOffset + low + i : plan.getNumberOfDataBytes()*8 + checkOffset + i - (high - low);
+            int priority = contrasts[offset] << 8 | random.nextInt(256);
+            // sort by priority, earlier candidates first among equal priorities
+            order[i] = (long) priority << 32 | (numberOfCandidates - 1 - i) & 0xFFFFFFFFL;
+        }
+        sort(order, numberOfCandidates);
+
+        for (int i = numberOfCandidates - 1;i >= 0;i--) {
+            int candidate = numberOfCandidates - 1 - (int) order[i];
+            int offset = candidate < high - low ? dataOffset + low + candidate : plan.getNumberOfDataBytes()*8 + checkOffset + candidate - (high - low);
+            int value = ((int)targets[offset])&0xFF;
+            if(value < this.divider) {
+                value = 1;
+            } else {
+                value = 0;
+            }
+
+            if(Pixel.shouldInvert(pixelByOffset[offset])) {
+                value ^= 1;
+            }
+            if(hardZeros[offset]) {
+                value = 0;
+            }
+
+            int index;
+
+            if (candidate < high - low) {
+                index = offset - dataOffset;
+            } else {
+                index = offset - plan.getNumberOfDataBytes()*8 - checkOffset + nd*8;
+            }
+            if (bitBlock.canSet(index, (byte) value)) {
+                blockByOffset[offset] = bitBlock;
+                bitIndexByOffset[offset] = index;
+                attemptByOffset[offset] = attempt;
+            }
+        }
+        bitBlock.copyOut();
+
+        return order;
+    }
+
+    // in place heapsort of a[0, n), Arrays.sort may allocate a merge buffer for input made of runs
+    private static void sort(long[] a, int n) {
+        for (int i = n/2 - 1; i >= 0; i--) {
+            siftDown(a, i, n);
+        }
+        for (int end = n - 1; end > 0; end--) {
+            long top = a[0];
+            a[0] = a[end];
+            a[end] = top;
+            siftDown(a, 0, end);
+        }
+    }
+
+    private static void siftDown(long[] a, int i, int n) {
+        long value = a[i];
+        for (int child = 2*i + 1; child < n; child = 2*i + 1) {
+            if (child + 1 < n && a[child + 1] > a[child]) {
+                child++;
+            }
+            if (a[child] <= value) {
+                break;
+            }
+            a[i] = a[child];
+            i = child;
+        }
+        a[i] = value;
+    }
+
+    /**
+     * Solves one block, again on every attempt, {@link #reinitialize()}, set {@link #attempt} and
+     * reseed {@link #random} in between.
+     */
+    private final class BlockTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Plan plan;
+        private final PixelTable pixelTable;
+        private final byte[] data;
+        private final int nd;
+        private final int numberOfCheckBytesPerBlock;
+        private final int dataOffset;
+        private final int checkOffset;
+        private final int headSize;
+        private final int mainDataBits;
+        private final SplitMix random = new SplitMix();
+        // candidate bits of the block, by priority
+        private long[] order;
+
+        private int attempt;
+        private BitBlock bitBlock;
+        private QArtException exception;
+
+        private BlockTask(Plan plan, PixelTable pixelTable, byte[] data, int nd, int numberOfCheckBytesPerBlock,
+                          int dataOffset, int checkOffset, int headSize, int mainDataBits) {
+            this.plan = plan;
+            this.pixelTable = pixelTable;
+            this.data = data;
+            this.nd = nd;
+            this.numberOfCheckBytesPerBlock = numberOfCheckBytesPerBlock;
+            this.dataOffset = dataOffset;
+            this.checkOffset = checkOffset;
+            this.headSize = headSize;
+            this.mainDataBits = mainDataBits;
+        }
+
+        @Override
+        protected void compute() {
+            exception = null;
+            try {
+                if(bitBlock == null) {
+                    bitBlock = new BitBlock(nd, numberOfCheckBytesPerBlock,
+                            data, dataOffset/8,
+                            data, plan.getNumberOfDataBytes() + checkOffset/8);
+                } else {
+                    bitBlock.reload();
+                }
+                order = solveBlock(plan, pixelTable, bitBlock, data, nd, numberOfCheckBytesPerBlock,
+                        dataOffset, checkOffset, headSize, mainDataBits, random, order, attempt);
+            } catch (QArtException e) {
+                exception = e;
+            }
+        }
+    }
+
+    private int calculateDivider() {
+        int n = targetWidth * targetHeight;
         if(n == 0) {
             return 128;
         }
 
-        return (int) (sum/n);
+        return (int) (sum[sum.length - 1]/n);
     }
 
-    private void addDither(PixelInfo[] pixelByOffset, Pixel pixel, int error) {
-        Pixel.PixelRole role = pixel.getPixelRole();
-        if (role != Pixel.PixelRole.DATA && role != Pixel.PixelRole.CHECK) {
-            return;
-        }
+    /**
+     * Floyd-Steinberg error diffusion over the chosen modules, left to right on even rows and
+     * right to left on odd ones, setting each chosen bit to the side of the divider its target
+     * plus the error carried to it falls on. Error carried to a module that isn't a chosen data or
+     * check bit is dropped.
+     *
+     * @param attempt current encode attempt, only bits it chose are set
+     * @param errors error carried to the modules of the row, at x + 1
+     * @param nextErrors error carried to the modules of the row below, at x + 1
+     */
+    private void dither(int size, int[] modules, byte[] targets, BitBlock[] blockByOffset, int[] bitIndexByOffset,
+                        int[] attemptByOffset, int attempt,
+                        boolean[] hardZeros, int[] errors, int[] nextErrors) throws QArtException {
+        Arrays.fill(errors, 0);
+        for(int y = 0;y < size;y++) {
+            Arrays.fill(nextErrors, 0);
+            int step = (y & 1) == 0 ? 1 : -1;
+            for(int i = 0, x = step > 0 ? 0 : size - 1;i < size;i++, x += step) {
+                int pixel = modules[y*size + x];
+                if (!Pixel.isDataOrCheck(pixel)) {
+                    continue;
+                }
+                int offset = Pixel.offset(pixel);
+                BitBlock block = blockByOffset[offset];
+                if (block == null) {
+                    // did not choose this pixel
+                    continue;
+                }
+
+                byte bitValue = 1;
+                int grayValue = 0;
+                int targ = (targets[y*size + x] & 0xFF) + errors[x + 1];
+
+                if (targ >= this.divider) {
+                    // want white
+                    bitValue = 0;
+                    grayValue = 255;
+                }
+                if (Pixel.shouldInvert(pixel)) {
+                    bitValue ^= 1;
+                }
+                if (hardZeros[offset] && bitValue != 0) {
+                    bitValue ^= 1;
+                    grayValue ^= 0xFF;
+                }
 
-        PixelInfo info = pixelByOffset[pixel.getOffset()];
+                // Set pixel value as we want it. A bit chosen by an earlier attempt only still
+                // passes its error on, but its block has started over since.
+                if (attemptByOffset[offset] == attempt) {
+                    block.reset(bitIndexByOffset[offset], bitValue);
+                }
 
-        info.setDitherTarget(info.getDitherTarget() + error);
+                int error = targ - grayValue;
+                errors[x + 1 + step] += error*7/16;
+                nextErrors[x + 1 - step] += error*3/16;
+                nextErrors[x + 1] += error*5/16;
+                nextErrors[x + 1 + step] += error/16;
+            }
+
+            int[] row = errors;
+            errors = nextErrors;
+            nextErrors = row;
+        }
     }
 
     public static final class Target {
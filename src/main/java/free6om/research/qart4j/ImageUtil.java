@@ -3,42 +3,298 @@ package free6om.research.qart4j;
 import com.google.zxing.common.BitMatrix;
 import org.apache.commons.imaging.ImageReadException;
 import org.apache.commons.imaging.Imaging;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
 import java.awt.*;
 import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.IndexColorModel;
+import java.awt.image.WritableRaster;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 /**
  * Created by free6om on 7/27/15.
  */
 public class ImageUtil {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ImageUtil.class);
+
+    // rows of a luma task are split in two while it reads more pixels than this
+    private static final int LUMA_TASK_PIXELS = 1 << 16;
+
+    /**
+     * @return the luma of every pixel of the area, -1 for transparent ones, see {@link #makeLuma}
+     */
     public static int[][] makeTarget(BufferedImage image, int x, int y, int width, int height) {
-        int[][] target = new int[height][width];
-        for (int i = 0; i < height; ++i) {
-            for (int j = 0; j < width; ++j) {
-                int argb = image.getRGB(j+x, i+y);
-                int a = (argb >> 24) & 0xFF;
-                int r = (argb >> 16) & 0xFF;
-                int g = (argb >> 8) & 0xFF;
-                int b = argb & 0xFF;
-
-                if (a == 0) {
-                    target[i][j] = -1;
-                } else {
-                    target[i][j] = ((299 * r + 587 * g + 114 * b) + 500) / 1000;
+        return makeLuma(image, x, y, width, height).toArray();
+    }
+
+    public static LumaPlane makeLuma(BufferedImage image, int x, int y, int width, int height) {
+        return makeLuma(image, x, y, width, height, 1);
+    }
+
+    /**
+     * Averages the luma of an area of image over blocks of scale x scale pixels, leftover pixels
+     * at the right and bottom edges are dropped. Transparent pixels are left out of the average,
+     * a block with nothing else is transparent.
+     *
+     * The area is read a row at a time straight from the raster, with dedicated paths for int
+     * RGB, 3 byte BGR and 8 bit gray images, any other type going through
+     * {@link BufferedImage#getRGB(int, int, int, int, int[], int, int)}, and no intermediate
+     * image. Large areas are split by rows over the common fork/join pool.
+     */
+    public static LumaPlane makeLuma(BufferedImage image, int x, int y, int width, int height, int scale) {
+        int planeWidth = width / scale;
+        int planeHeight = height / scale;
+        byte[] luma = new byte[planeWidth * planeHeight];
+        long[] transparent = image.getColorModel().hasAlpha() ? new long[LumaPlane.wordsPerRow(planeWidth) * planeHeight] : null;
+        LumaTask task = new LumaTask(image, x, y, planeWidth, scale, luma, transparent, 0, planeHeight);
+        if((long) width * height <= LUMA_TASK_PIXELS) {
+            task.compute();
+        } else {
+            ForkJoinPool.commonPool().invoke(task);
+        }
+
+        return new LumaPlane(planeWidth, planeHeight, luma, transparent);
+    }
+
+    private static int luma(int r, int g, int b) {
+        return ((299 * r + 587 * g + 114 * b) + 500) / 1000;
+    }
+
+    /**
+     * Fills rows [from, to) of a luma plane, each from scale rows of the image.
+     */
+    private static final class LumaTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final BufferedImage image;
+        private final int x;
+        private final int y;
+        private final int width;
+        private final int scale;
+        private final byte[] luma;
+        private final long[] transparent;
+        private final int from;
+        private final int to;
+
+        // one image row, its luma and which of its pixels are transparent
+        private int[] intRow;
+        private byte[] byteRow;
+        private byte[] levels;
+        private byte[] rowLuma;
+        private boolean[] rowTransparent;
+
+        private LumaTask(BufferedImage image, int x, int y, int width, int scale, byte[] luma, long[] transparent,
+                         int from, int to) {
+            this.image = image;
+            this.x = x;
+            this.y = y;
+            this.width = width;
+            this.scale = scale;
+            this.luma = luma;
+            this.transparent = transparent;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if((long) width * scale * scale * (to - from) > LUMA_TASK_PIXELS && to - from > 1) {
+                int middle = (from + to) >>> 1;
+                invokeAll(new LumaTask(image, x, y, width, scale, luma, transparent, from, middle),
+                        new LumaTask(image, x, y, width, scale, luma, transparent, middle, to));
+                return;
+            }
+
+            int rowWidth = width * scale;
+            rowLuma = new byte[rowWidth];
+            rowTransparent = transparent == null ? null : new boolean[rowWidth];
+            int[] sums = new int[width];
+            int[] counts = new int[width];
+            int words = LumaPlane.wordsPerRow(width);
+            for(int i = from;i < to;i++) {
+                int offset = i * width;
+                if(scale == 1) {
+                    readRow(y + i, rowWidth);
+                    System.arraycopy(rowLuma, 0, luma, offset, width);
+                    for(int j = 0;rowTransparent != null && j < width;j++) {
+                        if(rowTransparent[j]) {
+                            transparent[i*words + (j >> 6)] |= 1L << j;
+                        }
+                    }
+                    continue;
+                }
+
+                Arrays.fill(sums, 0);
+                Arrays.fill(counts, 0);
+                for(int k = 0;k < scale;k++) {
+                    readRow(y + i*scale + k, rowWidth);
+                    for(int j = 0;j < rowWidth;j++) {
+                        if(rowTransparent == null || !rowTransparent[j]) {
+                            sums[j / scale] += rowLuma[j] & 0xFF;
+                            counts[j / scale]++;
+                        }
+                    }
+                }
+
+                for(int j = 0;j < width;j++) {
+                    if(counts[j] == 0) {
+                        transparent[i*words + (j >> 6)] |= 1L << j;
+                    } else {
+                        luma[offset + j] = (byte) ((sums[j] + counts[j] / 2) / counts[j]);
+                    }
+                }
+            }
+        }
+
+        private void readRow(int row, int rowWidth) {
+            WritableRaster raster = image.getRaster();
+            switch (image.getType()) {
+                case BufferedImage.TYPE_INT_ARGB:
+                case BufferedImage.TYPE_INT_RGB:
+                    if(intRow == null) {
+                        intRow = new int[rowWidth];
+                    }
+                    raster.getDataElements(x, row, rowWidth, 1, intRow);
+                    setRow(intRow, image.getType() == BufferedImage.TYPE_INT_ARGB);
+                    break;
+                case BufferedImage.TYPE_3BYTE_BGR:
+                    // the samples come out in band order, red first
+                    if(byteRow == null) {
+                        byteRow = new byte[rowWidth * 3];
+                    }
+                    raster.getDataElements(x, row, rowWidth, 1, byteRow);
+                    for(int j = 0, k = 0;j < rowWidth;j++, k += 3) {
+                        rowLuma[j] = (byte) luma(byteRow[k] & 0xFF, byteRow[k + 1] & 0xFF, byteRow[k + 2] & 0xFF);
+                    }
+                    break;
+                case BufferedImage.TYPE_BYTE_GRAY:
+                    if(byteRow == null) {
+                        byteRow = new byte[rowWidth];
+                        levels = grayLevels(image.getColorModel());
+                    }
+                    raster.getDataElements(x, row, rowWidth, 1, byteRow);
+                    for(int j = 0;j < rowWidth;j++) {
+                        rowLuma[j] = levels[byteRow[j] & 0xFF];
+                    }
+                    break;
+                default:
+                    if(intRow == null) {
+                        intRow = new int[rowWidth];
+                    }
+                    image.getRGB(x, row, rowWidth, 1, intRow, 0, rowWidth);
+                    setRow(intRow, rowTransparent != null);
+            }
+        }
+
+        private void setRow(int[] row, boolean alpha) {
+            for(int j = 0;j < row.length;j++) {
+                int argb = row[j];
+                boolean clear = alpha && (argb >>> 24) == 0;
+                if(alpha) {
+                    rowTransparent[j] = clear;
                 }
+                rowLuma[j] = clear ? 0 : (byte) luma((argb >> 16) & 0xFF, (argb >> 8) & 0xFF, argb & 0xFF);
             }
         }
 
-        return target;
+        // gray levels go through the color model once each, as getRGB would take them
+        private static byte[] grayLevels(ColorModel colorModel) {
+            byte[] levels = new byte[256];
+            byte[] pixel = new byte[1];
+            for(int level = 0;level < 256;level++) {
+                pixel[0] = (byte) level;
+                int rgb = colorModel.getRGB(pixel);
+                levels[level] = (byte) luma((rgb >> 16) & 0xFF, (rgb >> 8) & 0xFF, rgb & 0xFF);
+            }
 
+            return levels;
+        }
     }
 
+    /**
+     * Loads an image scaled to width x height. Formats ImageIO reads are decoded at the coarsest
+     * subsampling that still leaves at least width x height pixels, so a large photo is never
+     * held at full resolution; anything else is decoded in full by commons-imaging.
+     */
     public static BufferedImage loadImage(String filename, int width, int height) throws IOException, ImageReadException {
-        BufferedImage image = Imaging.getBufferedImage(new File(filename));
+        File file = new File(filename);
+        BufferedImage image = file.isFile() ? readSubsampled(ImageIO.createImageInputStream(file), width, height) : null;
+        if(image == null) {
+            image = Imaging.getBufferedImage(file);
+        }
+
+        return scaleImage(image, width, height);
+    }
 
+    public static BufferedImage loadImage(byte[] bytes, int width, int height) throws IOException, ImageReadException {
+        BufferedImage image = readSubsampled(ImageIO.createImageInputStream(new ByteArrayInputStream(bytes)), width, height);
+        if(image == null) {
+            image = Imaging.getBufferedImage(bytes);
+        }
+
+        return scaleImage(image, width, height);
+    }
+
+    /**
+     * @return the image of stream read with ImageIO, subsampled down towards width x height, or
+     * null if no ImageIO reader takes it
+     */
+    private static BufferedImage readSubsampled(ImageInputStream stream, int width, int height) throws IOException {
+        if(stream == null) {
+            return null;
+        }
+
+        try {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(stream);
+            if(!readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(stream, true, true);
+                int subsampling = subsampling(reader.getWidth(0), reader.getHeight(0), width, height);
+                ImageReadParam param = reader.getDefaultReadParam();
+                if(subsampling > 1) {
+                    param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                }
+
+                return reader.read(0, param);
+            } catch (IOException e) {
+                LOGGER.debug("ImageIO could not read the image, falling back to commons-imaging", e);
+                return null;
+            } finally {
+                reader.dispose();
+            }
+        } finally {
+            stream.close();
+        }
+    }
+
+    // the largest step that keeps both sides of the source at least as long as the target
+    static int subsampling(int sourceWidth, int sourceHeight, int width, int height) {
+        if(width <= 0 || height <= 0) {
+            return 1;
+        }
+
+        return Math.max(1, Math.min(sourceWidth / width, sourceHeight / height));
+    }
+
+    private static BufferedImage scaleImage(BufferedImage image, int width, int height) {
         BufferedImage finalImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
         Graphics graphics = finalImage.createGraphics();
         graphics.drawImage(image, 0, 0, width, height, null);
@@ -47,12 +303,103 @@ public class ImageUtil {
         return finalImage;
     }
 
-    public static BitMatrix makeBitMatrix(QRCode code, int quietZone, int size) {
-        Pixel[][] pixels = code.getPixels();
-        byte[] bytes = code.getBytes();
+    /**
+     * @return whether every pixel of image is fully transparent
+     */
+    public static boolean isTransparent(BufferedImage image) {
+        if(image.getType() == BufferedImage.TYPE_INT_ARGB) {
+            int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+            for(int pixel : pixels) {
+                if((pixel & 0xFF000000) != 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        if(!image.getColorModel().hasAlpha()) {
+            return false;
+        }
+        for(int y = 0;y < image.getHeight();y++) {
+            for(int x = 0;x < image.getWidth();x++) {
+                if((image.getRGB(x, y) & 0xFF000000) != 0) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
 
-        int inputWidth = pixels[0].length;
-        int inputHeight = pixels.length;
+    /**
+     * Places a 1 bit indexed image at (x, y) of a transparent canvas without unpacking it: the
+     * canvas palette is the image's two colors followed by transparent, 2 bits per pixel.
+     */
+    public static BufferedImage placeOnTransparent(BufferedImage image, int x, int y, int width, int height) {
+        if(x == 0 && y == 0 && width == image.getWidth() && height == image.getHeight()) {
+            return image;
+        }
+
+        IndexColorModel colorModel = (IndexColorModel) image.getColorModel();
+        IndexColorModel canvasColorModel = new IndexColorModel(2, 3,
+                new int[]{colorModel.getRGB(0), colorModel.getRGB(1), 0}, 0, true, 2, DataBuffer.TYPE_BYTE);
+        BufferedImage canvas = new BufferedImage(width, height, BufferedImage.TYPE_BYTE_BINARY, canvasColorModel);
+        // every 2 bit pixel set to index 2, transparent
+        Arrays.fill(((DataBufferByte) canvas.getRaster().getDataBuffer()).getData(), (byte) 0xAA);
+        canvas.getRaster().setRect(x, y, image.getRaster());
+
+        return canvas;
+    }
+
+    /**
+     * Renders code at the same place and scale as {@link #makeBitMatrix(QRCode, int, int)} followed
+     * by {@link MatrixToImageWriter#toBufferedImage(BitMatrix, MatrixToImageConfig)}, writing packed
+     * rows straight into the 1 bit raster: each module row is drawn once and copied for the rest
+     * of its scale.
+     */
+    public static BufferedImage makeImage(QRCode code, int quietZone, int size, MatrixToImageConfig config) {
+        int inputSize = code.getSize();
+        int multiple = size / (inputSize + quietZone * 2);
+        int padding = (size - inputSize * multiple) / 2;
+
+        BufferedImage image = config.createBufferedImage(size, size);
+        // off is index 0, so the image starts out all off
+        byte[] data = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+        int stride = (size + 7) / 8;
+        byte[] row = new byte[stride];
+        for(int inputY = 0, outputY = padding;inputY < inputSize && multiple > 0;inputY++, outputY += multiple) {
+            Arrays.fill(row, (byte) 0);
+            for(int inputX = 0, outputX = padding;inputX < inputSize;inputX++, outputX += multiple) {
+                if(code.isBlack(inputX, inputY)) {
+                    setBits(row, outputX, outputX + multiple);
+                }
+            }
+            for(int i = 0;i < multiple;i++) {
+                System.arraycopy(row, 0, data, (outputY + i) * stride, stride);
+            }
+        }
+
+        return image;
+    }
+
+    // sets bits [from, to) of a row packed most significant bit first
+    private static void setBits(byte[] row, int from, int to) {
+        while(from < to && (from & 7) != 0) {
+            row[from >> 3] |= 0x80 >>> (from & 7);
+            from++;
+        }
+        while(from + 8 <= to) {
+            row[from >> 3] = (byte) 0xFF;
+            from += 8;
+        }
+        while(from < to) {
+            row[from >> 3] |= 0x80 >>> (from & 7);
+            from++;
+        }
+    }
+
+    public static BitMatrix makeBitMatrix(QRCode code, int quietZone, int size) {
+        int inputWidth = code.getSize();
+        int inputHeight = code.getSize();
         int qrWidth = inputWidth + (quietZone * 2);
         int qrHeight = inputHeight + (quietZone * 2);
         int outputWidth = size;
@@ -71,19 +418,7 @@ public class ImageUtil {
         for (int inputY = 0, outputY = topPadding; inputY < inputHeight; inputY++, outputY += multiple) {
             // Write the contents of this row of the barcode
             for (int inputX = 0, outputX = leftPadding; inputX < inputWidth; inputX++, outputX += multiple) {
-                Pixel pixel = new Pixel(pixels[inputY][inputX]);
-                Pixel.PixelRole role = pixel.getPixelRole();
-                if(role == Pixel.PixelRole.DATA || role == Pixel.PixelRole.CHECK) {
-                    int offset = pixel.getOffset();
-                    int value = (bytes[offset/8]>>(7-offset&7))&0x1;
-                    if(pixel.shouldInvert()) {
-                        pixel.xorPixel(value);
-                    } else {
-                        pixel.setPixel(value);
-                    }
-                }
-
-                if((pixel.getPixel()&Pixel.BLACK.getPixel()) != 0) {
+                if(code.isBlack(inputX, inputY)) {
                     output.setRegion(outputX, outputY, multiple, multiple);
                 }
             }
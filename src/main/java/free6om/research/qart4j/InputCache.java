@@ -0,0 +1,223 @@
+package free6om.research.qart4j;
+
+import org.apache.commons.imaging.ImageReadException;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process wide cache of decoded input images and of the targets made from them, for traffic
+ * that puts the same few images behind many URLs.
+ *
+ * Inputs are keyed by the SHA-256 of the encoded file plus the width and height they are scaled
+ * to, so a file is read and hashed but only decoded and scaled once, requests for an input that
+ * is still being decoded wait for that decode rather than starting their own. Targets are keyed by the
+ * same hash plus the area of the input under the code and its pixels per module, which is what
+ * the width, height, margins, size, version and quiet zone come down to. Both caches are
+ * bounded by the bytes their values hold and evict the least recently used first. Cached
+ * images and targets are shared between threads and must be treated as read only.
+ */
+public class InputCache {
+    public static final long DEFAULT_MAXIMUM_INPUT_BYTES = 64L << 20;
+    public static final long DEFAULT_MAXIMUM_TARGET_BYTES = 16L << 20;
+
+    private static final LruCache<String, BufferedImage> INPUTS = new LruCache<String, BufferedImage>(
+            DEFAULT_MAXIMUM_INPUT_BYTES, new LruCache.Weigher<BufferedImage>() {
+        @Override
+        public long weigh(BufferedImage image) {
+            return (long) image.getWidth() * image.getHeight() * 4;
+        }
+    });
+    private static final LruCache<String, LumaPlane> TARGETS = new LruCache<String, LumaPlane>(
+            DEFAULT_MAXIMUM_TARGET_BYTES, new LruCache.Weigher<LumaPlane>() {
+        @Override
+        public long weigh(LumaPlane target) {
+            return target.getBytes();
+        }
+    });
+    // inputs being decoded by key, guarded by itself, an input leaves only once it is in INPUTS
+    private static final Map<String, FutureTask<BufferedImage>> LOADING = new HashMap<String, FutureTask<BufferedImage>>();
+    private static final AtomicLong DECODES = new AtomicLong();
+    // content hash of every image load handed out, images made elsewhere have no cached targets
+    private static final Map<BufferedImage, String> HASHES =
+            Collections.synchronizedMap(new WeakHashMap<BufferedImage, String>());
+
+    private InputCache() {
+    }
+
+    /**
+     * @see ImageUtil#loadImage(String, int, int)
+     */
+    public static BufferedImage load(String filename, int width, int height) throws IOException, ImageReadException {
+        return load(Files.readAllBytes(new File(filename).toPath()), width, height);
+    }
+
+    /**
+     * @see ImageUtil#loadImage(byte[], int, int)
+     */
+    public static BufferedImage load(byte[] bytes, int width, int height) throws IOException, ImageReadException {
+        return load(bytes, hash(bytes), width, height);
+    }
+
+    /**
+     * @param hash {@link #hash(byte[])} of bytes
+     */
+    static BufferedImage load(final byte[] bytes, final String hash, final int width, final int height) throws IOException, ImageReadException {
+        String key = hash + "|" + width + "x" + height;
+        FutureTask<BufferedImage> load;
+        boolean loader = false;
+        synchronized (LOADING) {
+            BufferedImage image = INPUTS.get(key);
+            if(image != null) {
+                return image;
+            }
+            load = LOADING.get(key);
+            if(load == null) {
+                load = new FutureTask<BufferedImage>(new Callable<BufferedImage>() {
+                    @Override
+                    public BufferedImage call() throws Exception {
+                        DECODES.incrementAndGet();
+                        BufferedImage image = ImageUtil.loadImage(bytes, width, height);
+                        HASHES.put(image, hash);
+                        return image;
+                    }
+                });
+                LOADING.put(key, load);
+                loader = true;
+            }
+        }
+
+        if(loader) {
+            load.run();
+            synchronized (LOADING) {
+                LOADING.remove(key);
+                return INPUTS.putIfAbsent(key, get(load));
+            }
+        }
+
+        return get(load);
+    }
+
+    private static BufferedImage get(FutureTask<BufferedImage> load) throws IOException, ImageReadException {
+        try {
+            return load.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for an input to be decoded");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if(cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if(cause instanceof ImageReadException) {
+                throw (ImageReadException) cause;
+            }
+            if(cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if(cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    /**
+     * @return the content hash of the file input was loaded from, null if it wasn't loaded here
+     */
+    static String hashOf(BufferedImage input) {
+        return HASHES.get(input);
+    }
+
+    /**
+     * @return the target of an area of input, see {@link ImageUtil#makeLuma(BufferedImage, int, int, int, int, int)}
+     */
+    public static LumaPlane target(BufferedImage input, int x, int y, int width, int height, int scale) {
+        String hash = HASHES.get(input);
+        if(hash == null) {
+            return ImageUtil.makeLuma(input, x, y, width, height, scale);
+        }
+
+        String key = hash + "|" + input.getWidth() + "x" + input.getHeight() + "|" +
+                x + "," + y + "," + width + "x" + height + "/" + scale;
+        LumaPlane target = TARGETS.get(key);
+        if(target == null) {
+            target = TARGETS.putIfAbsent(key, ImageUtil.makeLuma(input, x, y, width, height, scale));
+        }
+
+        return target;
+    }
+
+    public static void setMaximumInputBytes(long maximumBytes) {
+        INPUTS.setMaximumWeight(maximumBytes);
+    }
+
+    public static void setMaximumTargetBytes(long maximumBytes) {
+        TARGETS.setMaximumWeight(maximumBytes);
+    }
+
+    public static long getInputHits() {
+        return INPUTS.getHits();
+    }
+
+    public static long getInputMisses() {
+        return INPUTS.getMisses();
+    }
+
+    /**
+     * @return inputs decoded so far, misses that waited for a decode already running don't add one
+     */
+    public static long getInputDecodes() {
+        return DECODES.get();
+    }
+
+    public static long getTargetHits() {
+        return TARGETS.getHits();
+    }
+
+    public static long getTargetMisses() {
+        return TARGETS.getMisses();
+    }
+
+    /**
+     * @return hits and misses of both caches, for logging
+     */
+    public static String stats() {
+        return "inputs " + getInputHits() + " hits, " + getInputMisses() + " misses, " + getInputDecodes() + " decodes, " + INPUTS.getWeight() + " bytes; " +
+                "targets " + getTargetHits() + " hits, " + getTargetMisses() + " misses, " + TARGETS.getWeight() + " bytes";
+    }
+
+    public static void clear() {
+        INPUTS.clear();
+        TARGETS.clear();
+    }
+
+    // SHA-256, in hex
+    static String hash(byte[] bytes) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is missing", e);
+        }
+
+        StringBuilder hex = new StringBuilder(64);
+        for(byte b : digest.digest(bytes)) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+}
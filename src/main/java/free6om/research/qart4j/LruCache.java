@@ -0,0 +1,134 @@
+package free6om.research.qart4j;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A small thread safe cache which evicts the least recently used entries once the total weight
+ * of its entries is above its maximum, every entry weighs 1 unless a {@link Weigher} says
+ * otherwise. Values are built by the caller, outside of the cache lock.
+ */
+public class LruCache<K, V> {
+    /**
+     * Weight of a cached value, in whatever unit the maximum is given in, bytes for example.
+     */
+    public interface Weigher<V> {
+        long weigh(V value);
+    }
+
+    private final Map<K, V> entries = new LinkedHashMap<K, V>(16, 0.75f, true);
+    private final Weigher<? super V> weigher;
+    private long maximumWeight;
+    private long weight;
+    private long hits;
+    private long misses;
+
+    public LruCache(int maximumSize) {
+        this(maximumSize, null);
+    }
+
+    /**
+     * @param weigher weight of each value, null to count entries
+     */
+    public LruCache(long maximumWeight, Weigher<? super V> weigher) {
+        checkMaximumWeight(maximumWeight);
+        this.maximumWeight = maximumWeight;
+        this.weigher = weigher;
+    }
+
+    public synchronized V get(K key) {
+        V value = entries.get(key);
+        if(value == null) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return value;
+    }
+
+    /**
+     * Stores value unless another thread stored one for the same key first. A value heavier
+     * than the maximum weight is returned without being kept.
+     *
+     * @return the value now cached for key
+     */
+    public synchronized V putIfAbsent(K key, V value) {
+        V current = entries.get(key);
+        if(current != null) {
+            return current;
+        }
+        long valueWeight = weigh(value);
+        if(valueWeight > maximumWeight) {
+            // would only push out everything else on its way out
+            return value;
+        }
+        entries.put(key, value);
+        weight += valueWeight;
+        evict();
+        return value;
+    }
+
+    public synchronized void setMaximumSize(int maximumSize) {
+        setMaximumWeight(maximumSize);
+    }
+
+    public synchronized int getMaximumSize() {
+        return (int) Math.min(maximumWeight, Integer.MAX_VALUE);
+    }
+
+    public synchronized void setMaximumWeight(long maximumWeight) {
+        checkMaximumWeight(maximumWeight);
+        this.maximumWeight = maximumWeight;
+        evict();
+    }
+
+    public synchronized long getMaximumWeight() {
+        return maximumWeight;
+    }
+
+    public synchronized long getWeight() {
+        return weight;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return how many {@link #get(Object)} calls found their key
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return how many {@link #get(Object)} calls did not find their key
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        weight = 0;
+    }
+
+    private void evict() {
+        Iterator<V> iterator = entries.values().iterator();
+        while (weight > maximumWeight) {
+            weight -= weigh(iterator.next());
+            iterator.remove();
+        }
+    }
+
+    private long weigh(V value) {
+        return weigher == null ? 1 : weigher.weigh(value);
+    }
+
+    private static void checkMaximumWeight(long maximumWeight) {
+        if(maximumWeight < 1) {
+            throw new IllegalArgumentException("maximum size must be positive");
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package free6om.research.qart4j;
+
+/**
+ * Luma of an image, row after row, one unsigned byte per pixel, with a bit per pixel marking the
+ * fully transparent ones. Transparent pixels read as -1, as in {@link ImageUtil#makeTarget}.
+ */
+public class LumaPlane {
+    private final int width;
+    private final int height;
+    private final byte[] luma;
+    // (width + 63) / 64 words per row, so rows never share a word; null when nothing is transparent
+    private final long[] transparent;
+
+    LumaPlane(int width, int height, byte[] luma, long[] transparent) {
+        this.width = width;
+        this.height = height;
+        this.luma = luma;
+        this.transparent = transparent;
+    }
+
+    /**
+     * @param target rows of equal length holding luma values, or -1 for transparent pixels
+     */
+    public static LumaPlane of(int[][] target) {
+        int height = target.length;
+        int width = height == 0 ? 0 : target[0].length;
+        byte[] luma = new byte[width * height];
+        long[] transparent = null;
+        int words = wordsPerRow(width);
+        for(int y = 0;y < height;y++) {
+            for(int x = 0;x < width;x++) {
+                int value = target[y][x];
+                if(value < 0) {
+                    if(transparent == null) {
+                        transparent = new long[words * height];
+                    }
+                    transparent[y*words + (x >> 6)] |= 1L << x;
+                } else {
+                    luma[y*width + x] = (byte) value;
+                }
+            }
+        }
+
+        return new LumaPlane(width, height, luma, transparent);
+    }
+
+    static int wordsPerRow(int width) {
+        return (width + 63) >> 6;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return the luma at (x, y), or -1 if the pixel is transparent
+     */
+    public int get(int x, int y) {
+        if(isTransparent(x, y)) {
+            return -1;
+        }
+
+        return luma[y*width + x] & 0xFF;
+    }
+
+    /**
+     * @return bytes held by the plane's arrays
+     */
+    public long getBytes() {
+        return luma.length + (transparent == null ? 0 : transparent.length * 8L);
+    }
+
+    public boolean isTransparent(int x, int y) {
+        return transparent != null && (transparent[y*wordsPerRow(width) + (x >> 6)] & 1L << x) != 0;
+    }
+
+    /**
+     * @return the plane as rows of luma values, -1 for transparent pixels
+     */
+    public int[][] toArray() {
+        int[][] target = new int[height][width];
+        for(int y = 0;y < height;y++) {
+            for(int x = 0;x < width;x++) {
+                target[y][x] = get(x, y);
+            }
+        }
+
+        return target;
+    }
+}
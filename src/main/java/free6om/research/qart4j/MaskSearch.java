@@ -0,0 +1,149 @@
+package free6om.research.qart4j;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Encodes an image with several masks and rotations at once and keeps the code that scores
+ * closest to the target, see {@link Image#score(QRCode)}.
+ *
+ * All candidates share the image and its precomputed module targets. A candidate is dropped
+ * before its blocks are solved once the modules it can't change already score worse than the
+ * best finished candidate. Ties go to the lowest mask, then the lowest rotation, so the pick
+ * doesn't depend on which candidates finish first.
+ */
+public class MaskSearch {
+    private static final Logger LOGGER = LoggerFactory.getLogger(MaskSearch.class);
+
+    // stands for "try all of them" in place of a mask or a rotation
+    public static final int AUTO = -1;
+
+    private final Image image;
+
+    private int mask;
+    private int rotation;
+    private long score;
+
+    public MaskSearch(Image image) {
+        this.image = image;
+    }
+
+    /**
+     * @param mask mask to use, or {@link #AUTO} to try all 8
+     * @param rotation rotation to use, or {@link #AUTO} to try all 4
+     */
+    public QRCode search(int mask, int rotation) throws QArtException {
+        int[] masks = mask == AUTO ? new int[]{0, 1, 2, 3, 4, 5, 6, 7} : new int[]{mask};
+        int[] rotations = rotation == AUTO ? new int[]{0, 1, 2, 3} : new int[]{rotation};
+
+        AtomicLong best = new AtomicLong(Long.MAX_VALUE);
+        CandidateTask[] tasks = new CandidateTask[masks.length * rotations.length];
+        for(int i = 0;i < masks.length;i++) {
+            for(int j = 0;j < rotations.length;j++) {
+                tasks[i*rotations.length + j] = new CandidateTask(masks[i], rotations[j], best);
+            }
+        }
+        run(tasks);
+
+        CandidateTask winner = null;
+        QArtException failure = null;
+        int dropped = 0;
+        for(CandidateTask task : tasks) {
+            if(task.exception != null) {
+                failure = task.exception;
+            } else if(task.code == null) {
+                dropped++;
+            } else if(winner == null || task.score < winner.score) {
+                winner = task;
+            }
+        }
+        if(winner == null) {
+            throw failure != null ? failure : new QArtException("no mask and rotation could be encoded");
+        }
+
+        this.mask = winner.mask;
+        this.rotation = winner.rotation;
+        this.score = winner.score;
+        LOGGER.debug("picked mask {}, rotation {}, score {}, dropped {} of {} candidates early",
+                winner.mask, winner.rotation, winner.score, dropped, tasks.length);
+
+        return winner.code;
+    }
+
+    public int getMask() {
+        return mask;
+    }
+
+    public int getRotation() {
+        return rotation;
+    }
+
+    public long getScore() {
+        return score;
+    }
+
+    private void run(CandidateTask[] tasks) {
+        ForkJoinPool pool = image.getPool();
+        if(tasks.length == 1 || pool == null) {
+            for(CandidateTask task : tasks) {
+                task.compute();
+            }
+        } else if(ForkJoinTask.getPool() == pool) {
+            // already a worker of the pool, help with the candidates rather than block on them
+            ForkJoinTask.invokeAll(tasks);
+        } else {
+            for(CandidateTask task : tasks) {
+                pool.execute(task);
+            }
+            for(CandidateTask task : tasks) {
+                task.join();
+            }
+        }
+    }
+
+    private final class CandidateTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int mask;
+        private final int rotation;
+        private final AtomicLong best;
+
+        private QRCode code;
+        private long score;
+        private QArtException exception;
+
+        private CandidateTask(int mask, int rotation, AtomicLong best) {
+            this.mask = mask;
+            this.rotation = rotation;
+            this.best = best;
+        }
+
+        @Override
+        protected void compute() {
+            try {
+                QRCode code = image.encode(mask, rotation, best);
+                if(code == null) {
+                    return;
+                }
+                long score = image.score(code, best.get());
+                if(score > best.get()) {
+                    return;
+                }
+
+                long current;
+                while (score < (current = best.get()) && !best.compareAndSet(current, score)) {
+                    // retry
+                }
+                this.code = code;
+                this.score = score;
+            } catch (QArtException e) {
+                exception = e;
+            }
+        }
+    }
+}
@@ -17,6 +17,8 @@
 package free6om.research.qart4j;
 
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.IndexColorModel;
 
 /**
  * Encapsulates custom configuration used in methods of {@link MatrixToImageWriter}.
@@ -54,21 +56,43 @@ public final class MatrixToImageConfig {
     return offColor;
   }
 
+  /**
+   * @return a 1 bit palette with the off color at index 0 and the on color at index 1, alpha included
+   */
+  IndexColorModel getIndexColorModel() {
+    return new IndexColorModel(1, 2, new int[]{offColor, onColor}, 0, true, -1, DataBuffer.TYPE_BYTE);
+  }
+
+  /**
+   * @return a packed 1 bit image of the given size using {@link #getIndexColorModel()}, so
+   * any pair of colors takes one bit per pixel
+   */
+  BufferedImage createBufferedImage(int width, int height) {
+    return new BufferedImage(width, height, BufferedImage.TYPE_BYTE_BINARY, getIndexColorModel());
+  }
+
+  /**
+   * @return the image type images of these colors used to be created with
+   * @deprecated images are created by {@link #createBufferedImage(int, int)}, packed 1 bit
+   * indexed whatever the colors
+   */
+  @Deprecated
   int getBufferedImageColorModel() {
     if (onColor == BLACK && offColor == WHITE) {
-      // Use faster BINARY if colors match default
       return BufferedImage.TYPE_BYTE_BINARY;
     }
-    if (hasTransparency(onColor) || hasTransparency(offColor)) {
-      // Use ARGB representation if colors specify non-opaque alpha
+    if (!isOpaque()) {
       return BufferedImage.TYPE_INT_ARGB;
     }
-    // Default otherwise to RGB representation with ignored alpha channel
     return BufferedImage.TYPE_INT_RGB;
   }
 
-  private static boolean hasTransparency(int argb) {
-    return (argb & 0xFF000000) != 0xFF000000;
+  boolean isOpaque() {
+    return isOpaque(onColor) && isOpaque(offColor);
+  }
+
+  private static boolean isOpaque(int argb) {
+    return (argb & 0xFF000000) == 0xFF000000;
   }
 
 }
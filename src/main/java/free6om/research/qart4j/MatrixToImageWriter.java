@@ -59,7 +59,7 @@ public final class MatrixToImageWriter {
   public static BufferedImage toBufferedImage(BitMatrix matrix, MatrixToImageConfig config) {
     int width = matrix.getWidth();
     int height = matrix.getHeight();
-    BufferedImage image = new BufferedImage(width, height, config.getBufferedImageColorModel());
+    BufferedImage image = config.createBufferedImage(width, height);
     int onColor = config.getPixelOnColor();
     int offColor = config.getPixelOffColor();
     for (int x = 0; x < width; x++) {
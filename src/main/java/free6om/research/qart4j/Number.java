@@ -5,12 +5,20 @@ package free6om.research.qart4j;
  * Created by free6om on 7/21/15.
  */
 public class Number implements Encoding {
-    private String numbers;
+    private CharSequence numbers;
 
     public Number(String numbers) {
         this.numbers = numbers;
     }
 
+    /**
+     * @param numbers digits, read on every use, so a mutable sequence can be refilled and
+     *                encoded again
+     */
+    public Number(CharSequence numbers) {
+        this.numbers = numbers;
+    }
+
     @Override
     public String validate() {
         if(numbers == null) return null;
@@ -34,9 +42,12 @@ public class Number implements Encoding {
         bits.write(1, 4);
         bits.write(numbers.length(), numberLength[version.getSize()]);
         int i = 0;
-        for(i = 0;i+3 <= numbers.length();i += 3) {
-            int w = (numbers.charAt(i) - '0') * 100 + (numbers.charAt(i+1) - '0') * 10 + (numbers.charAt(i+2) - '0');
-            bits.write(w, 10);
+        // three groups of three digits to a write
+        for(i = 0;i+9 <= numbers.length();i += 9) {
+            bits.write(group(i) << 20 | group(i+3) << 10 | group(i+6), 30);
+        }
+        for(;i+3 <= numbers.length();i += 3) {
+            bits.write(group(i), 10);
         }
 
         switch (numbers.length() - i) {
@@ -51,8 +62,12 @@ public class Number implements Encoding {
         }
     }
 
+    private int group(int i) {
+        return (numbers.charAt(i) - '0') * 100 + (numbers.charAt(i+1) - '0') * 10 + (numbers.charAt(i+2) - '0');
+    }
+
     @Override
     public String toString() {
-        return numbers;
+        return numbers == null ? null : numbers.toString();
     }
 }
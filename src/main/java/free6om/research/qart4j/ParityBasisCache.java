@@ -0,0 +1,90 @@
+package free6om.research.qart4j;
+
+/**
+ * Process wide cache of the Reed-Solomon parity bases used by {@link BitBlock}.
+ *
+ * A basis has one row per data bit of a block: the unit vector for that bit followed by its
+ * check bytes. It only depends on the block shape, (numberOfDataBytes, numberOfCheckBytes), so
+ * it is built once per shape and every block starts from a copy of it. Outside of the package
+ * cached bases are only handed out as copies, least recently used shapes are evicted once the
+ * cache is full.
+ */
+public class ParityBasisCache {
+    public static final int DEFAULT_MAXIMUM_SIZE = 64;
+
+    private static final LruCache<Long, BitRows> BASES = new LruCache<Long, BitRows>(DEFAULT_MAXIMUM_SIZE);
+
+    private ParityBasisCache() {
+    }
+
+    /**
+     * @return a private, mutable copy of the parity basis for the given block shape
+     */
+    public static BitRows copyOf(int numberOfDataBytes, int numberOfCheckBytes) {
+        return new BitRows(basis(numberOfDataBytes, numberOfCheckBytes));
+    }
+
+    /**
+     * @return the cached parity basis for the given block shape itself, which must not be modified
+     */
+    static BitRows basis(int numberOfDataBytes, int numberOfCheckBytes) {
+        Long key = key(numberOfDataBytes, numberOfCheckBytes);
+        BitRows basis = BASES.get(key);
+        if(basis == null) {
+            // two threads racing on a new shape only waste some work
+            basis = BASES.putIfAbsent(key, build(numberOfDataBytes, numberOfCheckBytes));
+        }
+
+        return basis;
+    }
+
+    /**
+     * Builds the bases of every block shape used by the given versions at the given level,
+     * so that the first codes of those versions don't pay for it.
+     */
+    public static void warmUp(Level level, int... versions) {
+        for(int version : versions) {
+            Version.VersionInfo versionInfo = Version.VERSION_INFOS[version];
+            Version.VersionLevelInfo levelInfo = versionInfo.levelInfos[level.ordinal()];
+            int numberOfDataBytes = new Version(version).dataBytes(level);
+            int numberOfDataBytesPerBlock = numberOfDataBytes / levelInfo.numberOfBlocks;
+
+            copyOf(numberOfDataBytesPerBlock, levelInfo.numberOfCheckBytesPerBlock);
+            if(numberOfDataBytes % levelInfo.numberOfBlocks != 0) {
+                copyOf(numberOfDataBytesPerBlock + 1, levelInfo.numberOfCheckBytesPerBlock);
+            }
+        }
+    }
+
+    public static void setMaximumSize(int maximumSize) {
+        BASES.setMaximumSize(maximumSize);
+    }
+
+    public static int size() {
+        return BASES.size();
+    }
+
+    public static void clear() {
+        BASES.clear();
+    }
+
+    private static Long key(int numberOfDataBytes, int numberOfCheckBytes) {
+        return ((long) numberOfDataBytes << 32) | numberOfCheckBytes;
+    }
+
+    private static BitRows build(int numberOfDataBytes, int numberOfCheckBytes) {
+        BitRows basis = new BitRows(numberOfDataBytes*8, (numberOfDataBytes + numberOfCheckBytes)*8);
+        byte[] row = new byte[numberOfDataBytes];
+        byte[] checkBytes = new byte[numberOfCheckBytes];
+        for(int i = 0;i < numberOfDataBytes*8;i++) {
+            row[i/8] = (byte) (1 << (7 - i%8));
+            ReedSolomonUtil.generateECBytes(row, 0, numberOfDataBytes, checkBytes, 0, numberOfCheckBytes);
+            row[i/8] = 0;
+
+            basis.set(i, i);
+            basis.setBytes(i, numberOfDataBytes, checkBytes, 0, numberOfCheckBytes);
+        }
+
+        return basis;
+    }
+}
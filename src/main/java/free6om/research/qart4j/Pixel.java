@@ -28,6 +28,9 @@ public class Pixel {
     public static final Pixel BLACK = new Pixel(1);
     public static final Pixel INVERT = new Pixel(2);
 
+    // values() clones the array on every call
+    private static final PixelRole[] ROLES = PixelRole.values();
+
     private int data;
 
     public Pixel(int value) {
@@ -42,6 +45,10 @@ public class Pixel {
         this.data = pixel.data;
     }
 
+    public int getData() {
+        return data;
+    }
+
     public int getOffset() {
         return data >> 6;
     }
@@ -51,12 +58,7 @@ public class Pixel {
     }
 
     public PixelRole getPixelRole() {
-        int ordinal = (this.data >> 2) & 0x0F;
-        if(ordinal < PixelRole.UNKNOWN.ordinal() || ordinal > PixelRole.EXTRA.ordinal()){
-            return null;
-        }
-
-        return PixelRole.values()[ordinal];
+        return role(this.data);
     }
 
     public boolean shouldInvert() {
@@ -81,4 +83,56 @@ public class Pixel {
         this.data ^= (value & 0x01);
     }
 
+    // The same accessors on packed pixel values, for code that keeps modules in int arrays.
+
+    public static int pixel(PixelRole role, int offset) {
+        return (offset << 6) | (role.ordinal() << 2);
+    }
+
+    public static int offset(int pixel) {
+        return pixel >> 6;
+    }
+
+    public static PixelRole role(int pixel) {
+        int ordinal = (pixel >> 2) & 0x0F;
+        if(ordinal > PixelRole.EXTRA.ordinal()){
+            return null;
+        }
+
+        return ROLES[ordinal];
+    }
+
+    public static boolean isDataOrCheck(int pixel) {
+        int ordinal = (pixel >> 2) & 0x0F;
+        return ordinal == PixelRole.DATA.ordinal() || ordinal == PixelRole.CHECK.ordinal();
+    }
+
+    public static boolean shouldInvert(int pixel) {
+        return ((pixel>>1)&0x1) == 1;
+    }
+
+    public static int value(int pixel) {
+        return pixel & 0x01;
+    }
+
+    public static Pixel[][] toPixels(int[] modules, int size) {
+        Pixel[][] pixels = new Pixel[size][size];
+        for(int y = 0;y < size;y++) {
+            for(int x = 0;x < size;x++) {
+                pixels[y][x] = new Pixel(modules[y*size + x]);
+            }
+        }
+        return pixels;
+    }
+
+    public static int[] toModules(Pixel[][] pixels) {
+        int size = pixels.length;
+        int[] modules = new int[size * size];
+        for(int y = 0;y < size;y++) {
+            for(int x = 0;x < size;x++) {
+                modules[y*size + x] = pixels[y][x].data;
+            }
+        }
+        return modules;
+    }
 }
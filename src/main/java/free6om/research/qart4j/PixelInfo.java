@@ -1,95 +1,89 @@
 package free6om.research.qart4j;
 
 /**
+ * A view of one entry of a {@link PixelTable}.
+ *
  * Created by free6om on 7/21/15.
  */
 public class PixelInfo {
-    private int x, y;
-    private Pixel pixel;
-    private byte target;
-    private int ditherTarget;
-    private int contrast;
-    private boolean hardZero;
-    private BitBlock block;
-    private int bitIndex;
+    private final PixelTable table;
+    private final int offset;
+
+    public PixelInfo(PixelTable table, int offset) {
+        this.table = table;
+        this.offset = offset;
+    }
 
     public PixelInfo(int x, int y, Pixel pixel, byte target, int contrast) {
-        this.x = x;
-        this.y = y;
-        this.pixel = pixel;
-        this.target = target;
-        this.contrast = contrast;
+        this(new PixelTable(1), 0);
+        setX(x);
+        setY(y);
+        setPixel(pixel);
+        setTarget(target);
+        setContrast(contrast);
     }
 
     public int getX() {
-        return x;
+        return table.getX()[offset];
     }
 
     public void setX(int x) {
-        this.x = x;
+        table.getX()[offset] = x;
     }
 
     public int getY() {
-        return y;
+        return table.getY()[offset];
     }
 
     public void setY(int y) {
-        this.y = y;
+        table.getY()[offset] = y;
     }
 
     public Pixel getPixel() {
-        return pixel;
+        return new Pixel(table.getPixel()[offset]);
     }
 
     public void setPixel(Pixel pixel) {
-        this.pixel = pixel;
+        table.getPixel()[offset] = pixel.getData();
     }
 
     public byte getTarget() {
-        return target;
+        return table.getTarget()[offset];
     }
 
     public void setTarget(byte target) {
-        this.target = target;
-    }
-
-    public int getDitherTarget() {
-        return ditherTarget;
-    }
-
-    public void setDitherTarget(int ditherTarget) {
-        this.ditherTarget = ditherTarget;
+        table.getTarget()[offset] = target;
     }
 
     public int getContrast() {
-        return contrast;
+        return table.getContrast()[offset];
     }
 
     public void setContrast(int contrast) {
-        this.contrast = contrast;
+        table.getContrast()[offset] = contrast;
     }
 
     public boolean isHardZero() {
-        return hardZero;
+        return table.getHardZero()[offset];
     }
 
     public void setHardZero(boolean hardZero) {
-        this.hardZero = hardZero;
+        table.getHardZero()[offset] = hardZero;
     }
 
     public BitBlock getBlock() {
-        return block;
+        return table.getBlock()[offset];
     }
 
     public void setBlock(BitBlock block) {
-        this.block = block;
+        table.getBlock()[offset] = block;
     }
 
     public int getBitIndex() {
-        return bitIndex;
+        return table.getBitIndex()[offset];
     }
 
     public void setBitIndex(int bitIndex) {
-        this.bitIndex = bitIndex;
+        table.getBitIndex()[offset] = bitIndex;
     }
 }
@@ -0,0 +1,75 @@
+package free6om.research.qart4j;
+
+/**
+ * Per bit state of an encode, one array per field, indexed by data/check bit offset.
+ * {@link PixelInfo} is a view of one entry.
+ */
+public class PixelTable {
+    private final int[] x;
+    private final int[] y;
+    // packed Pixel value of the module holding the bit
+    private final int[] pixel;
+    private final byte[] target;
+    private final int[] contrast;
+    private final boolean[] hardZero;
+    private final BitBlock[] block;
+    private final int[] bitIndex;
+    // encode attempt that last chose the bit, block and bitIndex are only live for the current one
+    private final int[] attempt;
+
+    public PixelTable(int numberOfBits) {
+        this.x = new int[numberOfBits];
+        this.y = new int[numberOfBits];
+        this.pixel = new int[numberOfBits];
+        this.target = new byte[numberOfBits];
+        this.contrast = new int[numberOfBits];
+        this.hardZero = new boolean[numberOfBits];
+        this.block = new BitBlock[numberOfBits];
+        this.bitIndex = new int[numberOfBits];
+        this.attempt = new int[numberOfBits];
+    }
+
+    public int size() {
+        return pixel.length;
+    }
+
+    public PixelInfo get(int offset) {
+        return new PixelInfo(this, offset);
+    }
+
+    public int[] getX() {
+        return x;
+    }
+
+    public int[] getY() {
+        return y;
+    }
+
+    public int[] getPixel() {
+        return pixel;
+    }
+
+    public byte[] getTarget() {
+        return target;
+    }
+
+    public int[] getContrast() {
+        return contrast;
+    }
+
+    public boolean[] getHardZero() {
+        return hardZero;
+    }
+
+    public BitBlock[] getBlock() {
+        return block;
+    }
+
+    public int[] getBitIndex() {
+        return bitIndex;
+    }
+
+    public int[] getAttempt() {
+        return attempt;
+    }
+}
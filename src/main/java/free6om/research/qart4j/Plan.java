@@ -6,105 +6,194 @@ import org.slf4j.LoggerFactory;
 import java.util.Arrays;
 
 /**
+ * Modules are kept as packed {@link Pixel} values in one int array, row after row:
+ * module (x, y) is {@code modules[y * size + x]}.
+ *
  * Created by free6om on 7/20/15.
  */
 public class Plan {
     private static final Logger LOGGER = LoggerFactory.getLogger(Plan.class);
 
-    private Version version;
-    private Level level;
-    private Mask mask;
+    private static final int BLACK = 1;
+    private static final int INVERT = 2;
 
-    private int numberOfDataBytes;
-    private int numberOfCheckBytes;
-    private int numberOfBlocks;
+    private final Version version;
+    private final Level level;
+    private final Mask mask;
+    private final int rotation;
 
-    private Pixel[][] pixels;
+    private final int numberOfDataBytes;
+    private final int numberOfCheckBytes;
+    private final int numberOfBlocks;
 
-    public Version getVersion() {
-        return version;
+    private final int size;
+    private final int[] modules;
+    // y * size + x of the module holding each data/check bit
+    private final int[] positionByOffset;
+
+    private Plan(Version version, Level level, Mask mask, int rotation,
+                 int numberOfDataBytes, int numberOfCheckBytes, int numberOfBlocks, int size, int[] modules) {
+        this.version = new Version(version.getVersion());
+        this.level = level;
+        this.mask = mask == null ? null : new Mask(mask.getMask());
+        this.rotation = rotation;
+        this.numberOfDataBytes = numberOfDataBytes;
+        this.numberOfCheckBytes = numberOfCheckBytes;
+        this.numberOfBlocks = numberOfBlocks;
+        this.size = size;
+        this.modules = modules;
+
+        int[] positions = new int[(numberOfDataBytes + numberOfCheckBytes) * 8];
+        for(int i = 0;i < modules.length;i++) {
+            if(Pixel.isDataOrCheck(modules[i])) {
+                positions[Pixel.offset(modules[i])] = i;
+            }
+        }
+        this.positionByOffset = positions;
     }
 
-    public void setVersion(Version version) {
-        this.version = version;
+    /**
+     * @return a copy of the version, changes to it don't affect the plan
+     */
+    public Version getVersion() {
+        return new Version(version.getVersion());
     }
 
     public Level getLevel() {
         return level;
     }
 
-    public void setLevel(Level level) {
-        this.level = level;
-    }
-
+    /**
+     * @return a copy of the mask, changes to it don't affect the plan
+     */
     public Mask getMask() {
-        return mask;
+        return mask == null ? null : new Mask(mask.getMask());
     }
 
-    public void setMask(Mask mask) {
-        this.mask = mask;
+    public int getRotation() {
+        return rotation;
     }
 
     public int getNumberOfDataBytes() {
         return numberOfDataBytes;
     }
 
-    public void setNumberOfDataBytes(int numberOfDataBytes) {
-        this.numberOfDataBytes = numberOfDataBytes;
-    }
-
     public int getNumberOfCheckBytes() {
         return numberOfCheckBytes;
     }
 
-    public void setNumberOfCheckBytes(int numberOfCheckBytes) {
-        this.numberOfCheckBytes = numberOfCheckBytes;
-    }
-
     public int getNumberOfBlocks() {
         return numberOfBlocks;
     }
 
-    public void setNumberOfBlocks(int numberOfBlocks) {
-        this.numberOfBlocks = numberOfBlocks;
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * @return a copy of the packed modules, changes to it don't affect the plan
+     */
+    public int[] getModules() {
+        return modules.clone();
+    }
+
+    // the plan's own modules, shared with every user of the plan and never to be modified
+    int[] modules() {
+        return modules;
     }
 
+    /**
+     * @return a copy of the modules as {@link Pixel} objects, changes to it don't affect the plan
+     */
     public Pixel[][] getPixels() {
-        return pixels;
+        return Pixel.toPixels(modules, size);
     }
 
-    public void setPixels(Pixel[][] pixels) {
-        this.pixels = pixels;
+    /**
+     * @return y * size + x of the module that holds data/check bit {@code offset}, for every offset
+     */
+    public int[] getPositionByOffset() {
+        return positionByOffset.clone();
+    }
+
+    // the plan's own offset index, shared like modules()
+    int[] positionByOffset() {
+        return positionByOffset;
     }
 
     public static Plan newPlan(Version version, Level level, Mask mask) throws QArtException {
-        Plan plan = versionPlan(version);
-        formatPlan(plan, level, mask);
+        return newPlan(version, level, mask, 0);
+    }
 
-        levelPlan(plan, version, level);
-        maskPlan(plan, mask);
+    /**
+     * As {@link #newPlan(Version, Level, Mask)}, rotated clockwise by {@code rotation} quarter turns.
+     */
+    public static Plan newPlan(Version version, Level level, Mask mask, int rotation) throws QArtException {
+        if(rotation < 0 || rotation > 3) {
+            throw new QArtException("wrong rotation " + rotation);
+        }
+        int[] modules = versionModules(version);
+        int size = 17 + 4 * version.getVersion();
+        formatModules(modules, size, level, mask);
+        levelModules(modules, size, version, level);
+        maskModules(modules, size, mask);
+
+        Version.VersionInfo versionInfo = Version.VERSION_INFOS[version.getVersion()];
+        int numberOfBlocks = versionInfo.levelInfos[level.ordinal()].numberOfBlocks;
+        int numberOfCheckBytes = versionInfo.levelInfos[level.ordinal()].numberOfCheckBytesPerBlock * numberOfBlocks;
 
-        return plan;
+        return new Plan(version, level, mask, rotation, versionInfo.bytes - numberOfCheckBytes, numberOfCheckBytes,
+                numberOfBlocks, size, rotate(modules, size, rotation));
     }
 
-    private static void maskPlan(Plan plan, Mask mask) {
-        plan.setMask(mask);
-        for(int y = 0;y < plan.pixels.length;y++) {
-            for(int x = 0;x < plan.pixels[y].length;x++) {
-                Pixel pixel = plan.pixels[y][x];
-                Pixel.PixelRole role = pixel.getPixelRole();
+    // modules turned clockwise by rotation quarter turns, modules itself when rotation is 0
+    private static int[] rotate(int[] modules, int n, int rotation) {
+        if(rotation == 0) {
+            return modules;
+        }
+
+        int[] rotated = new int[n * n];
+
+        switch (rotation) {
+            case 1:
+                for(int y = 0;y < n;y++) {
+                    for(int x = 0;x < n;x++) {
+                        rotated[y*n + x] = modules[x*n + n - 1 - y];
+                    }
+                }
+                break;
+            case 2:
+                for(int y = 0;y < n;y++) {
+                    for(int x = 0;x < n;x++) {
+                        rotated[y*n + x] = modules[(n - 1 - y)*n + n - 1 - x];
+                    }
+                }
+                break;
+            default:
+                for(int y = 0;y < n;y++) {
+                    for(int x = 0;x < n;x++) {
+                        rotated[y*n + x] = modules[(n - 1 - x)*n + y];
+                    }
+                }
+                break;
+        }
+
+        return rotated;
+    }
+
+    private static void maskModules(int[] modules, int size, Mask mask) {
+        for(int y = 0;y < size;y++) {
+            for(int x = 0;x < size;x++) {
+                Pixel.PixelRole role = Pixel.role(modules[y*size + x]);
                 if((role == Pixel.PixelRole.DATA || role == Pixel.PixelRole.CHECK || role == Pixel.PixelRole.EXTRA) &&
-                        plan.mask.shouldInvert(y, x)) {
-                    pixel.setInvert(!pixel.shouldInvert());
-                    pixel.xorPixel(Pixel.BLACK.getPixel());
+                        mask.shouldInvert(y, x)) {
+                    modules[y*size + x] ^= INVERT | BLACK;
                 }
             }
         }
     }
 
-    private static void levelPlan(Plan plan, Version version, Level level) throws QArtException {
-        plan.setLevel(level);
-
+    private static void levelModules(int[] modules, int size, Version version, Level level) throws QArtException {
         int numberOfBlocks = Version.VERSION_INFOS[version.getVersion()].levelInfos[level.ordinal()].numberOfBlocks;
         int numberOfCheckBytes = Version.VERSION_INFOS[version.getVersion()].levelInfos[level.ordinal()].numberOfCheckBytesPerBlock;
         int numberOfDataBytes = (Version.VERSION_INFOS[version.getVersion()].bytes - numberOfCheckBytes*numberOfBlocks) / numberOfBlocks;
@@ -112,27 +201,19 @@ public class Plan {
         int dataBits = (numberOfDataBytes*numberOfBlocks + numberOfExtraBytes) * 8;
         int checkBits = numberOfCheckBytes * numberOfBlocks * 8;
 
-        plan.setNumberOfDataBytes(Version.VERSION_INFOS[version.getVersion()].bytes - numberOfCheckBytes * numberOfBlocks);
-        plan.setNumberOfCheckBytes(numberOfCheckBytes * numberOfBlocks);
-        plan.setNumberOfBlocks(numberOfBlocks);
-
         // Make data + checksum pixels.
-        Pixel[] data = new Pixel[dataBits];
+        int[] data = new int[dataBits];
         for (int i = 0;i < dataBits; i++) {
-            Pixel pixel = new Pixel(Pixel.PixelRole.DATA);
-            pixel.setOffset(i);
-            data[i] = pixel;
+            data[i] = Pixel.pixel(Pixel.PixelRole.DATA, i);
         }
-        Pixel[] check = new Pixel[checkBits];
+        int[] check = new int[checkBits];
         for (int i = 0;i < checkBits; i++) {
-            Pixel pixel = new Pixel(Pixel.PixelRole.CHECK);
-            pixel.setOffset(i + dataBits);
-            check[i] = pixel;
+            check[i] = Pixel.pixel(Pixel.PixelRole.CHECK, i + dataBits);
         }
 
         // Split into blocks.
-        Pixel[][] dataList = new Pixel[numberOfBlocks][];
-        Pixel[][] checkList = new Pixel[numberOfBlocks][];
+        int[][] dataList = new int[numberOfBlocks][];
+        int[][] checkList = new int[numberOfBlocks][];
         int dataIndex = 0, checkIndex = 0;
         for (int i = 0; i < numberOfBlocks; i++) {
             // The last few blocks have an extra data byte (8 pixels).
@@ -140,10 +221,10 @@ public class Plan {
             if (i >= numberOfBlocks - numberOfExtraBytes) {
                 dataBytes++;
             }
-            Pixel[] dataBLock = new Pixel[dataBytes * 8];
+            int[] dataBLock = new int[dataBytes * 8];
             System.arraycopy(data, dataIndex, dataBLock, 0, dataBLock.length);
             dataList[i] = dataBLock;
-            Pixel[] checkBlock = new Pixel[numberOfCheckBytes * 8];
+            int[] checkBlock = new int[numberOfCheckBytes * 8];
             System.arraycopy(check, checkIndex, checkBlock, 0, checkBlock.length);
             checkList[i] = checkBlock;
 
@@ -157,7 +238,7 @@ public class Plan {
 
         // Build up bit sequence, taking first byte of each block,
         // then second byte, and so on.  Then checksums.
-        Pixel[] bits = new Pixel[dataBits + checkBits];
+        int[] bits = new int[dataBits + checkBits];
         int bitIndex = 0;
 
         for(int i = 0;i < numberOfDataBytes + 1;i++) {
@@ -186,24 +267,18 @@ public class Plan {
         // then down, assigning to right then left pixel.
         // Repeat.
         // See Figure 2 of http://www.pclviewer.com/rs2/qrtopology.htm
-        int size = plan.pixels.length;
-        Pixel[] rem = new Pixel[7];
-        for(int i = 0;i < rem.length;i++) {
-            rem[i] = new Pixel(Pixel.PixelRole.EXTRA);
-        }
-
-        Pixel[] src = new Pixel[bits.length + rem.length];
+        int[] src = new int[bits.length + 7];
         System.arraycopy(bits, 0, src, 0, bits.length);
-        System.arraycopy(rem, 0, src, bits.length, rem.length);
+        Arrays.fill(src, bits.length, src.length, Pixel.pixel(Pixel.PixelRole.EXTRA, 0));
         int srcIndex = 0;
 
         for (int x = size; x > 0;) {
             for (int y = size - 1; y >= 0; y--) {
-                if (plan.pixels[y][x-1].getPixelRole().ordinal() == 0) {
-                    plan.pixels[y][x-1] = src[srcIndex++];
+                if (Pixel.role(modules[y*size + x-1]) == Pixel.PixelRole.UNKNOWN) {
+                    modules[y*size + x-1] = src[srcIndex++];
                 }
-                if (plan.pixels[y][x-2].getPixelRole().ordinal() == 0) {
-                    plan.pixels[y][x-2] = src[srcIndex++];
+                if (Pixel.role(modules[y*size + x-2]) == Pixel.PixelRole.UNKNOWN) {
+                    modules[y*size + x-2] = src[srcIndex++];
                 }
             }
             x -= 2;
@@ -211,18 +286,18 @@ public class Plan {
                 x--;
             }
             for (int y = 0; y < size; y++) {
-                if (plan.pixels[y][x - 1].getPixelRole().ordinal() == 0) {
-                    plan.pixels[y][x - 1] = src[srcIndex++];
+                if (Pixel.role(modules[y*size + x-1]) == Pixel.PixelRole.UNKNOWN) {
+                    modules[y*size + x-1] = src[srcIndex++];
                 }
-                if (plan.pixels[y][x - 2].getPixelRole().ordinal() == 0) {
-                    plan.pixels[y][x - 2] = src[srcIndex++];
+                if (Pixel.role(modules[y*size + x-2]) == Pixel.PixelRole.UNKNOWN) {
+                    modules[y*size + x-2] = src[srcIndex++];
                 }
             }
             x -= 2;
         }
     }
 
-    private static void formatPlan(Plan plan, Level level, Mask mask) {
+    private static void formatModules(int[] modules, int size, Level level, Mask mask) {
         // Format pixels.
         int formatBit = (level.ordinal()^1) << 13; // level: L=01, M=00, Q=11, H=10
         formatBit |= mask.getMask() << 10;   // mask
@@ -235,65 +310,64 @@ public class Plan {
         }
         formatBit |= rem;
         int invert = 0x5412;
-        int size = plan.getPixels().length;
         for (int i = 0; i < 15; i++) {
-            Pixel pixel = new Pixel(Pixel.PixelRole.FORMAT);
-            pixel.setOffset(i);
+            int pixel = Pixel.pixel(Pixel.PixelRole.FORMAT, i);
             if (((formatBit>>i)&1) == 1) {
-                pixel.orPixel(Pixel.BLACK.getPixel());
+                pixel |= BLACK;
             }
             if (((invert>>i)&1) == 1) {
-                pixel.setInvert(!pixel.shouldInvert());
-                pixel.xorPixel(Pixel.BLACK.getPixel());
+                pixel ^= INVERT | BLACK;
             }
             // top left
             if(i < 6) {
-                plan.pixels[i][8] = pixel;
+                modules[i*size + 8] = pixel;
             } else if(i < 8) {
-                plan.pixels[i + 1][8] = pixel;
+                modules[(i + 1)*size + 8] = pixel;
             } else if(i < 9) {
-                plan.pixels[8][7] = pixel;
+                modules[8*size + 7] = pixel;
             } else {
-                plan.pixels[8][14-i] = pixel;
+                modules[8*size + 14-i] = pixel;
             }
             // bottom right
             if(i < 8) {
-                plan.pixels[8][size - 1 - i]=pixel;
+                modules[8*size + size - 1 - i] = pixel;
             } else {
-                plan.pixels[size - 1 - (14-i)][8] = pixel;
+                modules[(size - 1 - (14-i))*size + 8] = pixel;
             }
         }
     }
 
+    /**
+     * Plan with only the function patterns of version laid out, no format, data or check modules.
+     */
     public static Plan versionPlan(Version version) throws VersionException {
-        Plan plan = new Plan();
-        plan.setVersion(version);
+        int size = 17 + 4 * version.getVersion();
+        return new Plan(version, null, null, 0, 0, 0, 0, size, versionModules(version));
+    }
+
+    private static int[] versionModules(Version version) throws VersionException {
         if(version.getVersion() < Version.MIN_VERSION || version.getVersion() > Version.MAX_VERSION) {
             throw new VersionException("wrong qr version: " + version.getVersion());
         }
 
         int size = 17 + 4 * version.getVersion();
-        Pixel[][] pixels = new Pixel[size][size];
-        plan.setPixels(pixels);
-        for(int y = 0;y < size;y++) {
-            Arrays.fill(pixels[y], new Pixel(0));
-        }
+        int[] modules = new int[size * size];
 
         int timingPosition = 6;
         for(int i = 0;i < size;i++) {
-            Pixel pixel = new Pixel(Pixel.PixelRole.TIMING);
+            int pixel = Pixel.pixel(Pixel.PixelRole.TIMING, 0);
             if((i&1) == 0) {
-                pixel.orPixel(Pixel.BLACK.getPixel());
+                pixel |= BLACK;
             }
 
-            pixels[i][timingPosition] = pixel;
-            pixels[timingPosition][i] = pixel;
+            modules[i*size + timingPosition] = pixel;
+            modules[timingPosition*size + i] = pixel;
         }
 
         //position box
-        setPositionBox(pixels, 0, 0);
-        setPositionBox(pixels, size - 7, 0);
-        setPositionBox(pixels, 0, size - 7);
+        setPositionBox(modules, size, 0, 0);
+        setPositionBox(modules, size, size - 7, 0);
+        setPositionBox(modules, size, 0, size - 7);
 
         //Alignment box
         Version.VersionInfo versionInfo = Version.VERSION_INFOS[version.getVersion()];
@@ -302,7 +376,7 @@ public class Plan {
                 // don't overwrite timing markers
                 if ((x < 7 && y < 7) || (x < 7 && y+5 >= size-7) || (x+5 >= size-7 && y < 7)) {
                 } else {
-                    setAlignBox(pixels, x, y);
+                    setAlignBox(modules, size, x, y);
                 }
                 if (y == 4) {
                     y = versionInfo.apos;
@@ -323,29 +397,27 @@ public class Plan {
         if(pattern != 0) {
             for (int x = 0; x < 6; x++) {
                 for (int y = 0; y < 3; y++) {
-                    Pixel pixel = new Pixel(Pixel.PixelRole.VERSION_PATTERN);
+                    int pixel = Pixel.pixel(Pixel.PixelRole.VERSION_PATTERN, 0);
                     if ((pattern&1) != 0) {
-                        pixel.orPixel(Pixel.BLACK.getPixel());
+                        pixel |= BLACK;
                     }
 
-                    pixels[size-11+y][x] = pixel;
-                    pixels[x][size-11+y] = pixel;
+                    modules[(size-11+y)*size + x] = pixel;
+                    modules[x*size + size-11+y] = pixel;
                     pattern >>= 1;
                 }
             }
         }
 
-        Pixel pixel = new Pixel(Pixel.PixelRole.UNUSED);
-        pixel.orPixel(Pixel.BLACK.getPixel());
-        pixels[size - 8][8] = pixel;
+        modules[(size - 8)*size + 8] = Pixel.pixel(Pixel.PixelRole.UNUSED, 0) | BLACK;
 
-        return plan;
+        return modules;
     }
 
     // Note that the input matrix uses 0 == white, 1 == black, while the output matrix uses
     // 0 == black, 255 == white (i.e. an 8 bit greyscale bitmap).
     public static QRCode encode(Plan plan, Encoding... encodings) throws QArtException {
-        Bits bits = new Bits();
+        Bits bits = new Bits(plan.version);
         for(Encoding encoding : encodings) {
             String error = encoding.validate();
             if(error != null) {
@@ -359,65 +431,61 @@ public class Plan {
         bits.addCheckBytes(plan.version, plan.level);
         byte[] bytes = bits.getBits();
 
-        Pixel[][] pixels = plan.pixels;
-
-        return new QRCode(bytes, pixels);
+        return new QRCode(bytes, plan.modules, plan.size);
 
 
     }
 
-    private static void setAlignBox(Pixel[][] pixels, int x, int y) {
+    private static void setAlignBox(int[] modules, int size, int x, int y) {
         // box
-        Pixel pixelWhite = new Pixel(Pixel.PixelRole.ALIGNMENT);
-        Pixel pixelBlack = new Pixel(Pixel.PixelRole.ALIGNMENT);
-        pixelBlack.setPixel(Pixel.BLACK.getPixel());
+        int pixelWhite = Pixel.pixel(Pixel.PixelRole.ALIGNMENT, 0);
+        int pixelBlack = pixelWhite | BLACK;
 
         for (int dy = 0; dy < 5; dy++) {
             for (int dx = 0; dx < 5; dx++) {
                 if (dx == 0 || dx == 4 || dy == 0 || dy == 4 || dx == 2 && dy == 2) {
-                    pixels[y+dy][x+dx] = pixelBlack;
+                    modules[(y+dy)*size + x+dx] = pixelBlack;
                 } else {
-                    pixels[y + dy][x + dx] = pixelWhite;
+                    modules[(y+dy)*size + x+dx] = pixelWhite;
                 }
             }
         }
     }
 
-    private static void setPositionBox(Pixel[][] pixels, int x, int y) {
-        Pixel pixelWhite = new Pixel(Pixel.PixelRole.POSITION);
-        Pixel pixelBlack = new Pixel(Pixel.PixelRole.POSITION);
-        pixelBlack.setPixel(Pixel.BLACK.getPixel());
+    private static void setPositionBox(int[] modules, int size, int x, int y) {
+        int pixelWhite = Pixel.pixel(Pixel.PixelRole.POSITION, 0);
+        int pixelBlack = pixelWhite | BLACK;
 
         //box
         for (int dy = 0; dy < 7; dy++) {
             for (int dx = 0; dx < 7; dx++) {
                 if (dx == 0 || dx == 6 || dy == 0 || dy == 6 || 2 <= dx && dx <= 4 && 2 <= dy && dy <= 4) {
-                    pixels[y+dy][x+dx] = pixelBlack;
+                    modules[(y+dy)*size + x+dx] = pixelBlack;
                 } else {
-                    pixels[y + dy][x + dx] = pixelWhite;
+                    modules[(y+dy)*size + x+dx] = pixelWhite;
                 }
             }
         }
 
         // white border
         for (int dy = -1; dy < 8; dy++) {
-            if (0 <= y+dy && y+dy < pixels.length) {
+            if (0 <= y+dy && y+dy < size) {
                 if (x > 0) {
-                    pixels[y+dy][x-1] = pixelWhite;
+                    modules[(y+dy)*size + x-1] = pixelWhite;
                 }
-                if (x+7 < pixels.length) {
-                    pixels[y+dy][x+7] = pixelWhite;
+                if (x+7 < size) {
+                    modules[(y+dy)*size + x+7] = pixelWhite;
                 }
             }
         }
 
         for (int dx = -1; dx < 8; dx++) {
-            if (0 <= x+dx && x+dx < pixels.length) {
+            if (0 <= x+dx && x+dx < size) {
                 if (y > 0) {
-                    pixels[y-1][x+dx] = pixelWhite;
+                    modules[(y-1)*size + x+dx] = pixelWhite;
                 }
-                if (y+7 < pixels.length) {
-                    pixels[y+7][x+dx] = pixelWhite;
+                if (y+7 < size) {
+                    modules[(y+7)*size + x+dx] = pixelWhite;
                 }
             }
         }
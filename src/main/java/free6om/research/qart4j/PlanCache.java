@@ -0,0 +1,50 @@
+package free6om.research.qart4j;
+
+/**
+ * Process wide cache of {@link Plan}s by version, level, mask and rotation.
+ *
+ * Plans only depend on those four values, so the module layout, zigzag walk, masking, rotation
+ * and the offset index are computed once and shared by every later encode. Plans are immutable,
+ * so cached ones are safe to share between threads.
+ */
+public class PlanCache {
+    // every mask and rotation of the versions an auto version search tries, and one more version
+    public static final int DEFAULT_MAXIMUM_SIZE = 8 * 4 * (VersionSearch.DEFAULT_CANDIDATES + 1);
+
+    private static final LruCache<Integer, Plan> PLANS = new LruCache<Integer, Plan>(DEFAULT_MAXIMUM_SIZE);
+
+    private PlanCache() {
+    }
+
+    public static Plan getPlan(Version version, Level level, Mask mask, int rotation) throws QArtException {
+        Integer key = ((version.getVersion()*4 + level.ordinal())*8 + mask.getMask())*4 + rotation;
+        Plan plan = PLANS.get(key);
+        if(plan == null) {
+            if(version.getVersion() < Version.MIN_VERSION || version.getVersion() > Version.MAX_VERSION) {
+                throw new VersionException("wrong qr version: " + version.getVersion());
+            }
+            if(mask.getMask() < 0 || mask.getMask() > 7 || rotation < 0 || rotation > 3) {
+                throw new QArtException("wrong mask " + mask.getMask() + " or rotation " + rotation);
+            }
+            plan = PLANS.putIfAbsent(key, Plan.newPlan(version, level, mask, rotation));
+        }
+
+        return plan;
+    }
+
+    /**
+     * Searches over more than {@link VersionSearch#DEFAULT_CANDIDATES} versions with auto mask and
+     * rotation need 32 plans per version to keep theirs cached.
+     */
+    public static void setMaximumSize(int maximumSize) {
+        PLANS.setMaximumSize(maximumSize);
+    }
+
+    public static int size() {
+        return PLANS.size();
+    }
+
+    public static void clear() {
+        PLANS.clear();
+    }
+}
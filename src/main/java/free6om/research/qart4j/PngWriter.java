@@ -0,0 +1,220 @@
+package free6om.research.qart4j;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Streams a QR code to an indexed PNG row by row, without ever holding the image: each scanline
+ * is packed from the modules when it is needed and pushed through a {@link Deflater}, so memory
+ * stays at a couple of rows and one IDAT chunk whatever the size.
+ *
+ * The code is drawn as {@link ImageUtil#makeImage(QRCode, int, int, MatrixToImageConfig)} draws
+ * it, optionally placed on a larger transparent canvas. The palette is the off color, the on
+ * color and, only when the canvas is larger than the code, transparent: 1 bit per pixel for
+ * the code alone, 2 bits on a canvas.
+ */
+public class PngWriter {
+    private static final byte[] SIGNATURE = new byte[]{(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    private static final int OFF = 0;
+    private static final int ON = 1;
+    private static final int TRANSPARENT = 2;
+
+    private PngWriter() {
+    }
+
+    public static void write(QRCode code, int quietZone, int size, MatrixToImageConfig config,
+                             OutputStream output) throws IOException {
+        write(code, quietZone, size, config, 0, 0, size, size, output);
+    }
+
+    /**
+     * @param x left of the code on the canvas
+     * @param y top of the code on the canvas
+     * @param width canvas width, at least x + size
+     * @param height canvas height, at least y + size
+     */
+    public static void write(QRCode code, int quietZone, int size, MatrixToImageConfig config,
+                             int x, int y, int width, int height, OutputStream output) throws IOException {
+        if(x < 0 || y < 0 || x + size > width || y + size > height) {
+            throw new IllegalArgumentException("code at (" + x + ", " + y + ") of size " + size +
+                    " does not fit a " + width + "x" + height + " canvas");
+        }
+        boolean canvas = width != size || height != size;
+        int bitDepth = canvas ? 2 : 1;
+
+        output.write(SIGNATURE);
+
+        ByteArrayOutputStream header = new ByteArrayOutputStream(13);
+        DataOutputStream data = new DataOutputStream(header);
+        data.writeInt(width);
+        data.writeInt(height);
+        data.writeByte(bitDepth);
+        data.writeByte(3); // indexed color
+        data.writeByte(0); // deflate
+        data.writeByte(0); // adaptive filtering
+        data.writeByte(0); // no interlace
+        writeChunk(output, "IHDR", header.toByteArray(), header.size());
+
+        int[] colors = canvas ? new int[]{config.getPixelOffColor(), config.getPixelOnColor(), 0} :
+                new int[]{config.getPixelOffColor(), config.getPixelOnColor()};
+        byte[] palette = new byte[colors.length * 3];
+        byte[] alpha = new byte[colors.length];
+        boolean opaque = true;
+        for(int i = 0;i < colors.length;i++) {
+            palette[i*3] = (byte) (colors[i] >> 16);
+            palette[i*3 + 1] = (byte) (colors[i] >> 8);
+            palette[i*3 + 2] = (byte) colors[i];
+            alpha[i] = (byte) (colors[i] >>> 24);
+            opaque &= alpha[i] == (byte) 0xFF;
+        }
+        writeChunk(output, "PLTE", palette, palette.length);
+        if(!opaque) {
+            writeChunk(output, "tRNS", alpha, alpha.length);
+        }
+
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+        try {
+            DeflaterOutputStream idat = new DeflaterOutputStream(new ChunkOutputStream(output, "IDAT"), deflater, 8192);
+            writeRows(code, quietZone, size, x, y, width, height, bitDepth, idat);
+            idat.close();
+        } finally {
+            deflater.end();
+        }
+
+        writeChunk(output, "IEND", new byte[0], 0);
+        output.flush();
+    }
+
+    // same geometry as ImageUtil.makeImage
+    private static void writeRows(QRCode code, int quietZone, int size, int x, int y, int width, int height,
+                                  int bitDepth, OutputStream idat) throws IOException {
+        int inputSize = code.getSize();
+        int multiple = size / (inputSize + quietZone * 2);
+        int padding = (size - inputSize * multiple) / 2;
+        int stride = (width * bitDepth + 7) / 8;
+
+        // a filter type byte followed by the packed pixels
+        byte[] transparentRow = null;
+        if(bitDepth == 2) {
+            transparentRow = new byte[1 + stride];
+            fill(transparentRow, 0, width, TRANSPARENT, bitDepth);
+        }
+        byte[] offRow = new byte[1 + stride];
+        if(transparentRow != null) {
+            System.arraycopy(transparentRow, 0, offRow, 0, offRow.length);
+        }
+        fill(offRow, x, x + size, OFF, bitDepth);
+        byte[] moduleRow = new byte[1 + stride];
+        // a row equal to the one above it is sent with the Up filter, which makes it all zeros
+        byte[] sameRow = new byte[1 + stride];
+        sameRow[0] = 2;
+
+        int moduleTop = y + padding;
+        int moduleBottom = multiple > 0 ? moduleTop + inputSize * multiple : moduleTop;
+        byte[] previous = null;
+        for(int row = 0;row < height;row++) {
+            byte[] current;
+            if(row < y || row >= y + size) {
+                current = transparentRow;
+            } else if(row < moduleTop || row >= moduleBottom) {
+                current = offRow;
+            } else {
+                current = moduleRow;
+                int inputY = (row - moduleTop) / multiple;
+                if((row - moduleTop) % multiple == 0) {
+                    System.arraycopy(offRow, 0, moduleRow, 0, offRow.length);
+                    for(int inputX = 0, outputX = x + padding;inputX < inputSize;inputX++, outputX += multiple) {
+                        if(code.isBlack(inputX, inputY)) {
+                            fill(moduleRow, outputX, outputX + multiple, ON, bitDepth);
+                        }
+                    }
+                    previous = null;
+                }
+            }
+            idat.write(current == previous ? sameRow : current);
+            previous = current;
+        }
+    }
+
+    // sets pixels [from, to) of a row, after its filter type byte, to value
+    private static void fill(byte[] row, int from, int to, int value, int bitDepth) {
+        int pixelsPerByte = 8 / bitDepth;
+        int mask = (1 << bitDepth) - 1;
+        for(int i = from;i < to;i++) {
+            int shift = 8 - bitDepth * (i % pixelsPerByte + 1);
+            int index = 1 + i / pixelsPerByte;
+            row[index] = (byte) (row[index] & ~(mask << shift) | value << shift);
+        }
+    }
+
+    private static void writeChunk(OutputStream output, String type, byte[] data, int length) throws IOException {
+        byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+        CRC32 crc = new CRC32();
+        crc.update(typeBytes);
+        crc.update(data, 0, length);
+
+        DataOutputStream out = new DataOutputStream(output);
+        out.writeInt(length);
+        out.write(typeBytes);
+        out.write(data, 0, length);
+        out.writeInt((int) crc.getValue());
+    }
+
+    /**
+     * Cuts what is written to it into chunks of one type, at most {@link #CHUNK_SIZE} long.
+     * Closing it writes the last chunk but leaves the underlying stream open.
+     */
+    private static final class ChunkOutputStream extends OutputStream {
+        private final OutputStream output;
+        private final String type;
+        private final byte[] buffer = new byte[CHUNK_SIZE];
+        private int count;
+
+        private ChunkOutputStream(OutputStream output, String type) {
+            this.output = output;
+            this.type = type;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if(count == buffer.length) {
+                flushChunk();
+            }
+            buffer[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if(count == buffer.length) {
+                    flushChunk();
+                }
+                int n = Math.min(len, buffer.length - count);
+                System.arraycopy(b, off, buffer, count, n);
+                count += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if(count > 0) {
+                flushChunk();
+            }
+        }
+
+        private void flushChunk() throws IOException {
+            writeChunk(output, type, buffer, count);
+            count = 0;
+        }
+    }
+}
@@ -1,10 +1,8 @@
 package free6om.research.qart4j;
 
-import com.google.zxing.common.BitMatrix;
 import joptsimple.OptionParser;
 import joptsimple.OptionSet;
 import org.apache.commons.imaging.ImageReadException;
-import org.apache.commons.imaging.Imaging;
 import org.apache.log4j.PropertyConfigurator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -12,12 +10,24 @@ import org.slf4j.LoggerFactory;
 import javax.imageio.ImageIO;
 import java.awt.*;
 import java.awt.image.BufferedImage;
+import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
-import java.nio.file.Paths;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.Arrays;
 import java.util.Properties;
-import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
 
 /**
  * Hello world!
@@ -25,6 +35,8 @@ import java.util.Random;
 public class QArt {
     private static final Logger LOGGER = LoggerFactory.getLogger("test");
 
+    private static volatile ResultCache resultCache;
+
     public static void main(String[] args) {
         OptionParser parser = new OptionParser() {
             {
@@ -44,21 +56,25 @@ public class QArt {
                         .defaultsTo("http://free6om.me");
                 //output QR code
                 acceptsAll(Arrays.asList("v", "version")).withRequiredArg()
+                        .ofType(String.class)
+                        .describedAs("QR version: 1 - 40, or auto to pick among the smallest versions the URL fits in")
+                        .defaultsTo("6");
+                acceptsAll(Arrays.asList("autoVersions")).withRequiredArg()
                         .ofType(Integer.class)
-                        .describedAs("QR version: 1 - 40")
-                        .defaultsTo(6);
+                        .describedAs("with --version auto, how many of the smallest versions that fit are tried, the closest to the image wins. 1 takes the smallest")
+                        .defaultsTo(VersionSearch.DEFAULT_CANDIDATES);
                 acceptsAll(Arrays.asList("m", "mask")).withRequiredArg()
-                        .ofType(Integer.class)
-                        .describedAs("QR mask: 0 - 7")
-                        .defaultsTo(2);
+                        .ofType(String.class)
+                        .describedAs("QR mask: 0 - 7, or auto to try all of them and keep the closest to the image")
+                        .defaultsTo("2");
                 acceptsAll(Arrays.asList("q", "quiet")).withRequiredArg()
                         .ofType(Integer.class)
                         .describedAs("QR quiet zone")
                         .defaultsTo(2);
                 acceptsAll(Arrays.asList("r", "rotation")).withRequiredArg()
-                        .ofType(Integer.class)
-                        .describedAs("rotation of the image in clockwise: 0 - 3")
-                        .defaultsTo(0);
+                        .ofType(String.class)
+                        .describedAs("rotation of the image in clockwise: 0 - 3, or auto to try all of them and keep the closest to the image")
+                        .defaultsTo("0");
                 acceptsAll(Arrays.asList("z", "size")).withRequiredArg()
                         .ofType(Integer.class)
                         .describedAs("output QR code size, 0 means don't scale")
@@ -117,12 +133,47 @@ public class QArt {
                         .defaultsTo(180);
                 acceptsAll(Arrays.asList("f", "format")).withRequiredArg()
                         .ofType(String.class)
-                        .describedAs("output image format")
+                        .describedAs("output image format, svg draws the QR code alone as vectors")
                         .defaultsTo("PNG");
                 acceptsAll(Arrays.asList("o", "output")).withRequiredArg()
                         .ofType(String.class)
                         .describedAs("output image file")
                         .defaultsTo("output.png");
+                //batch mode
+                acceptsAll(Arrays.asList("b", "batch")).withRequiredArg()
+                        .ofType(String.class)
+                        .describedAs("file of newline delimited JSON requests, - for stdin. Each request takes the long option names above as fields, options given here are the defaults");
+                acceptsAll(Arrays.asList("workers")).withRequiredArg()
+                        .ofType(Integer.class)
+                        .describedAs("number of requests processed at the same time in batch and server mode")
+                        .defaultsTo(Runtime.getRuntime().availableProcessors());
+                //server mode
+                acceptsAll(Arrays.asList("serve")).withRequiredArg()
+                        .ofType(Integer.class)
+                        .describedAs("serve GET/POST /encode on this port instead of writing one image, options given here are the defaults");
+                acceptsAll(Arrays.asList("bind")).withRequiredArg()
+                        .ofType(String.class)
+                        .describedAs("address the server listens on")
+                        .defaultsTo("127.0.0.1");
+                acceptsAll(Arrays.asList("inputDir")).withRequiredArg()
+                        .ofType(String.class)
+                        .describedAs("directory the input parameter of server requests is looked up in, without it requests have to post their image");
+                acceptsAll(Arrays.asList("maxBody")).withRequiredArg()
+                        .ofType(Integer.class)
+                        .describedAs("megabytes an image posted to the server may have")
+                        .defaultsTo(Server.DEFAULT_MAXIMUM_BODY_SIZE >> 20);
+                acceptsAll(Arrays.asList("maxImage")).withRequiredArg()
+                        .ofType(Integer.class)
+                        .describedAs("pixels the width, height, size and margins of a server request may each have")
+                        .defaultsTo(Server.DEFAULT_MAXIMUM_IMAGE_SIZE);
+                //result cache
+                acceptsAll(Arrays.asList("cache")).withRequiredArg()
+                        .ofType(String.class)
+                        .describedAs("directory of generated images to reuse for identical requests with a fixed seed");
+                acceptsAll(Arrays.asList("cacheSize")).withRequiredArg()
+                        .ofType(Long.class)
+                        .describedAs("megabytes the cache directory may hold before the least recently used images are deleted")
+                        .defaultsTo(1024L);
 
             }
         };
@@ -136,119 +187,378 @@ public class QArt {
         }
 
         String log4j = (String) options.valueOf("l");
+        //batch results own stdout: everything else printing there, console appenders of any
+        //log4j configuration included, goes to stderr instead
+        PrintStream results = System.out;
+        if(options.has("batch")) {
+            System.setOut(System.err);
+        }
+        configLog(log4j);
+
+        Request request = new Request();
 
         //input
-        String filename = (String) options.valueOf("i");
-        String url = (String) options.valueOf("u");
+        request.setInput((String) options.valueOf("i"));
+        request.setUrl((String) options.valueOf("u"));
 
         //QR code
-        int version = (Integer) options.valueOf("v");
-        int mask = (Integer) options.valueOf("m");
-        int quietZone = (Integer) options.valueOf("q");
-        int rotation = (Integer) options.valueOf("r");
-        int size = (Integer) options.valueOf("z");
-        int colorBlack = (int) Long.parseLong((String) options.valueOf("cb"), 16);
-        int colorWhite = (int) Long.parseLong((String) options.valueOf("cw"), 16);
+        request.setVersion(parseAuto((String) options.valueOf("v")));
+        request.setAutoVersions((Integer) options.valueOf("autoVersions"));
+        request.setMask(parseAuto((String) options.valueOf("m")));
+        request.setQuietZone((Integer) options.valueOf("q"));
+        request.setRotation(parseAuto((String) options.valueOf("r")));
+        request.setSize((Integer) options.valueOf("z"));
+        request.setColorBlack(parseColor((String) options.valueOf("cb")));
+        request.setColorWhite(parseColor((String) options.valueOf("cw")));
 
         //how to generate QR code
-        boolean randControl = (Boolean) options.valueOf("randControl");
-        long seed = (Long) options.valueOf("seed");
-        if (seed == -1) {
-            seed = System.currentTimeMillis();
-        }
-        boolean dither = (Boolean) options.valueOf("d");
-        boolean onlyDataBits = (Boolean) options.valueOf("onlyData");
-        boolean saveControl = (Boolean) options.valueOf("saveControl");
+        request.setRandControl((Boolean) options.valueOf("randControl"));
+        request.setSeed((Long) options.valueOf("seed"));
+        request.setDither((Boolean) options.valueOf("d"));
+        request.setOnlyDataBits((Boolean) options.valueOf("onlyData"));
+        request.setSaveControl((Boolean) options.valueOf("saveControl"));
 
         //output image
-        int width = (Integer) options.valueOf("w");
-        int height = (Integer) options.valueOf("h");
+        request.setWidth((Integer) options.valueOf("w"));
+        request.setHeight((Integer) options.valueOf("h"));
 
-        Integer marginTop = options.has("mt") ? (Integer) options.valueOf("mt") : null;
-        Integer marginBottom = options.has("mb") ? (Integer) options.valueOf("mb") : null;
-        Integer marginLeft = options.has("ml") ? (Integer) options.valueOf("ml") : null;
-        Integer marginRight = options.has("mr") ? (Integer) options.valueOf("mr") : null;
+        request.setMarginTop(options.has("mt") ? (Integer) options.valueOf("mt") : null);
+        request.setMarginBottom(options.has("mb") ? (Integer) options.valueOf("mb") : null);
+        request.setMarginLeft(options.has("ml") ? (Integer) options.valueOf("ml") : null);
+        request.setMarginRight(options.has("mr") ? (Integer) options.valueOf("mr") : null);
 
-        String outputFormat = (String) options.valueOf("f");
-        String output = (String) options.valueOf("o");
-
-        configLog(log4j);
+        request.setFormat((String) options.valueOf("f"));
+        request.setOutput((String) options.valueOf("o"));
 
         //todo validate input params, make sure all of them are valid
 
-        try {
-            BufferedImage input = ImageUtil.loadImage(filename, width, height);
+        if(options.has("cache")) {
+            try {
+                setResultCache(new ResultCache(new File((String) options.valueOf("cache")).toPath(),
+                        (Long) options.valueOf("cacheSize") << 20));
+            } catch (Exception e) {
+                LOGGER.error("cache error", e);
+                return;
+            }
+        }
+
+        if(options.has("batch")) {
+            String batch = (String) options.valueOf("batch");
+            int workers = (Integer) options.valueOf("workers");
+            try {
+                Reader reader = "-".equals(batch) ?
+                        new InputStreamReader(System.in, StandardCharsets.UTF_8) :
+                        new InputStreamReader(new FileInputStream(batch), StandardCharsets.UTF_8);
+                try {
+                    new Batch(request, workers).run(reader, results);
+                } finally {
+                    reader.close();
+                }
+            } catch (Exception e) {
+                LOGGER.error("batch error", e);
+            }
+            return;
+        }
 
-            int qrSizeWithoutQuiet = 17 + 4*version;
-            int qrSize = qrSizeWithoutQuiet + quietZone * 2;
-            if(size < qrSize) { //don't scale
-                size = qrSize;
+        if(options.has("serve")) {
+            try {
+                final Server server = new Server(request,
+                        new InetSocketAddress((String) options.valueOf("bind"), (Integer) options.valueOf("serve")),
+                        (Integer) options.valueOf("workers"));
+                if(options.has("inputDir")) {
+                    server.setInputDirectory(new File((String) options.valueOf("inputDir")));
+                }
+                server.setMaximumBodySize((Integer) options.valueOf("maxBody") << 20);
+                server.setMaximumImageSize((Integer) options.valueOf("maxImage"));
+                Runtime.getRuntime().addShutdownHook(new Thread() {
+                    @Override
+                    public void run() {
+                        server.stop(1);
+                    }
+                });
+                server.start();
+            } catch (IOException e) {
+                LOGGER.error("server error", e);
             }
-            int scale = size / qrSize;
-            int targetQrSizeWithoutQuiet = qrSizeWithoutQuiet * scale;
-
-            Rectangle inputImageRect = new Rectangle(new Point(0, 0), width, height);
-            int startX = 0, startY = 0;
-            if(marginLeft != null) {
-                startX = marginLeft;
-            } else if(marginRight != null) {
-                startX = width - marginRight - size;
+            return;
+        }
+
+        try {
+            write(request);
+        } catch (Exception e) {
+            LOGGER.error("encode error", e);
+        }
+
+    }
+
+    public static BufferedImage generate(Request request) throws IOException, ImageReadException, QArtException {
+        return generate(request, InputCache.load(request.getInput(), request.getWidth(), request.getHeight()));
+    }
+
+    /**
+     * @param input the input image already scaled to the request's width and height, it is only read
+     */
+    public static BufferedImage generate(Request request, BufferedImage input) throws QArtException {
+        return render(request, input, encode(request, input));
+    }
+
+    /**
+     * Generated images are looked up in and added to cache from now on, null turns caching off.
+     */
+    public static void setResultCache(ResultCache cache) {
+        resultCache = cache;
+    }
+
+    public static ResultCache getResultCache() {
+        return resultCache;
+    }
+
+    /**
+     * Generates the image of request into its output file, see {@link #generate(Request, BufferedImage, OutputStream)}.
+     * A cached result is copied without decoding the input.
+     */
+    public static void write(Request request) throws IOException, ImageReadException, QArtException {
+        checkFormat(request.getFormat());
+        byte[] bytes = Files.readAllBytes(new File(request.getInput()).toPath());
+        String hash = InputCache.hash(bytes);
+        ResultCache cache = resultCache;
+        String key = cache == null ? null : ResultCache.key(hash, request);
+        // written next to the output and moved over it once complete, a failure leaves the output as it was
+        Path file = new File(request.getOutput()).toPath().toAbsolutePath();
+        Path temporary = file.resolveSibling(file.getFileName() + "." +
+                Long.toHexString(ThreadLocalRandom.current().nextLong()) + ".part");
+        try {
+            // created like the output itself would be, with the default permissions
+            OutputStream output = new BufferedOutputStream(Files.newOutputStream(temporary, StandardOpenOption.CREATE_NEW));
+            try {
+                if(key == null || !cache.copyTo(key, output)) {
+                    BufferedImage input = InputCache.load(bytes, hash, request.getWidth(), request.getHeight());
+                    generate(request, input, output, cache, key);
+                }
+            } finally {
+                output.close();
             }
-            if(marginTop != null) {
-                startY = marginTop;
-            } else if(marginBottom != null) {
-                startY = height - marginBottom - size;
+            try {
+                Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING);
             }
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    /**
+     * Generates the image of request in its format. A PNG that shows nothing of the input is
+     * streamed row by row by {@link PngWriter} instead of being rendered first. An SVG holds
+     * the QR code only, see {@link SvgWriter}. With a result cache set, images loaded through
+     * {@link InputCache} are looked up there first.
+     *
+     * @param input the input image already scaled to the request's width and height, it is only read
+     */
+    public static void generate(Request request, BufferedImage input, OutputStream output) throws IOException, QArtException {
+        checkFormat(request.getFormat());
+        ResultCache cache = resultCache;
+        String key = cache == null ? null : ResultCache.key(InputCache.hashOf(input), request);
+        if(key != null && cache.copyTo(key, output)) {
+            return;
+        }
+        generate(request, input, output, cache, key);
+    }
+
+    // on a cache miss, the image goes to the cache and output at once
+    private static void generate(final Request request, final BufferedImage input, OutputStream output,
+                                 ResultCache cache, String key) throws IOException, QArtException {
+        if(key == null) {
+            writeImage(request, input, output);
+            return;
+        }
 
-            Rectangle qrRect = new Rectangle(new Point(startX, startY), size, size);
-            Rectangle qrWithoutQuietRect = new Rectangle(new Point(startX + (size-targetQrSizeWithoutQuiet)/2, startY + (size-targetQrSizeWithoutQuiet)/2), targetQrSizeWithoutQuiet, targetQrSizeWithoutQuiet);
-
-            int[][] target = null;
-            int dx = 0, dy = 0;
-            BufferedImage targetImage = null;
-            Rectangle targetRect = inputImageRect.intersect(qrWithoutQuietRect);
-            if(targetRect == null) {
-                LOGGER.warn("no intersect zone");
-                target = new int[0][0];
-            } else {
-                targetImage = input.getSubimage(targetRect.start.x, targetRect.start.y, targetRect.width, targetRect.height);
-                int scaledWidth = targetRect.width/scale;
-                int scaledHeight = targetRect.height/scale;
-                BufferedImage scaledImage = new BufferedImage(scaledWidth, scaledHeight, BufferedImage.TYPE_INT_ARGB);
-                Graphics graphics = scaledImage.createGraphics();
-                graphics.drawImage(targetImage, 0, 0, scaledWidth, scaledHeight, null);
-                graphics.dispose();
-
-                target = ImageUtil.makeTarget(scaledImage, 0, 0, scaledWidth, scaledHeight);
-                dx = (qrWithoutQuietRect.start.x - targetRect.start.x)/scale;
-                dy = (qrWithoutQuietRect.start.y - targetRect.start.y)/scale;
+        cache.store(key, new ResultCache.Content() {
+            @Override
+            public void writeTo(OutputStream output) throws IOException, QArtException {
+                writeImage(request, input, output);
             }
+        }, output);
+    }
+
+    private static void writeImage(Request request, BufferedImage input, OutputStream output) throws IOException, QArtException {
+        Encoded encoded = encode(request, input);
+        if(SvgWriter.FORMAT.equalsIgnoreCase(request.getFormat())) {
+            SvgWriter.write(encoded.code, request.getQuietZone(), encoded.qrRect.width,
+                    new MatrixToImageConfig(request.getColorBlack(), request.getColorWhite()), output);
+            return;
+        }
+
+        Rectangle qrRect = encoded.qrRect;
+        Rectangle inputImageRect = new Rectangle(new Point(0, 0), request.getWidth(), request.getHeight());
+        Rectangle finalRect = qrRect.union(inputImageRect);
+        MatrixToImageConfig config = new MatrixToImageConfig(request.getColorBlack(), request.getColorWhite());
+        if("png".equalsIgnoreCase(request.getFormat()) && !showsInput(input, inputImageRect, qrRect, config)) {
+            PngWriter.write(encoded.code, request.getQuietZone(), qrRect.width, config,
+                    qrRect.start.x - finalRect.start.x, qrRect.start.y - finalRect.start.y,
+                    finalRect.width, finalRect.height, output);
+            return;
+        }
+
+        if(!ImageIO.write(render(request, input, encoded), request.getFormat(), output)) {
+            throw new IOException("Could not write an image of format " + request.getFormat());
+        }
+    }
+
+    public static boolean isSupportedFormat(String format) {
+        return SvgWriter.FORMAT.equalsIgnoreCase(format) || ImageIO.getImageWritersByFormatName(format).hasNext();
+    }
+
+    private static void checkFormat(String format) throws IOException {
+        if(!isSupportedFormat(format)) {
+            throw new IOException("Could not write an image of format " + format);
+        }
+    }
+
+    private static Encoded encode(Request request, BufferedImage input) throws QArtException {
+        long seed = request.getSeed();
+        if (seed == -1) {
+            seed = System.currentTimeMillis();
+        }
+
+        if(request.getVersion() == VersionSearch.AUTO) {
+            return new VersionSearch(request, input, seed).search();
+        }
+        return encode(request, request.getVersion(), input, seed);
+    }
+
+    // whether any pixel of the input is visible in the output
+    private static boolean showsInput(BufferedImage input, Rectangle inputImageRect, Rectangle qrRect, MatrixToImageConfig config) {
+        if(config.isOpaque() && qrRect.contains(inputImageRect)) {
+            return false;
+        }
+
+        return !ImageUtil.isTransparent(input);
+    }
+
+    static Encoded encode(Request request, int version, BufferedImage input, long seed) throws QArtException {
+        int quietZone = request.getQuietZone();
+        int size = request.getSize();
+        int width = request.getWidth();
+        int height = request.getHeight();
+        Integer marginTop = request.getMarginTop();
+        Integer marginBottom = request.getMarginBottom();
+        Integer marginLeft = request.getMarginLeft();
+        Integer marginRight = request.getMarginRight();
 
+        int qrSizeWithoutQuiet = 17 + 4*version;
+        int qrSize = qrSizeWithoutQuiet + quietZone * 2;
+        if(size < qrSize) { //don't scale
+            size = qrSize;
+        }
+        int scale = size / qrSize;
+        int targetQrSizeWithoutQuiet = qrSizeWithoutQuiet * scale;
+
+        Rectangle inputImageRect = new Rectangle(new Point(0, 0), width, height);
+        int startX = 0, startY = 0;
+        if(marginLeft != null) {
+            startX = marginLeft;
+        } else if(marginRight != null) {
+            startX = width - marginRight - size;
+        }
+        if(marginTop != null) {
+            startY = marginTop;
+        } else if(marginBottom != null) {
+            startY = height - marginBottom - size;
+        }
+
+        Rectangle qrRect = new Rectangle(new Point(startX, startY), size, size);
+        Rectangle qrWithoutQuietRect = new Rectangle(new Point(startX + (size-targetQrSizeWithoutQuiet)/2, startY + (size-targetQrSizeWithoutQuiet)/2), targetQrSizeWithoutQuiet, targetQrSizeWithoutQuiet);
+
+        LumaPlane target = null;
+        int dx = 0, dy = 0;
+        Rectangle targetRect = inputImageRect.intersect(qrWithoutQuietRect);
+        if(targetRect == null) {
+            LOGGER.warn("no intersect zone");
+            target = LumaPlane.of(new int[0][0]);
+        } else {
+            // one luma value per module, averaged over the pixels the module covers
+            target = InputCache.target(input, targetRect.start.x, targetRect.start.y,
+                    targetRect.width, targetRect.height, scale);
+            dx = (qrWithoutQuietRect.start.x - targetRect.start.x)/scale;
+            dy = (qrWithoutQuietRect.start.y - targetRect.start.y)/scale;
+        }
+
+
+        Image image = new Image(target, dx, dy, request.getUrl(), version, request.getMask(), request.getRotation(),
+                request.isRandControl(), seed, request.isDither(), request.isOnlyDataBits(), request.isSaveControl());
+
+        QRCode qrCode;
+        if(request.getMask() == MaskSearch.AUTO || request.getRotation() == MaskSearch.AUTO) {
+            qrCode = new MaskSearch(image).search(request.getMask(), request.getRotation());
+        } else {
+            qrCode = image.encode();
+        }
 
-            Image image = new Image(target, dx, dy, url, version, mask, rotation, randControl, seed, dither, onlyDataBits, saveControl);
+        return new Encoded(version, image, qrCode, qrRect);
+    }
 
-            QRCode qrCode = image.encode();
-            BitMatrix bitMatrix = ImageUtil.makeBitMatrix(qrCode, quietZone, size);
+    private static BufferedImage render(Request request, BufferedImage input, Encoded encoded) {
+        Rectangle qrRect = encoded.qrRect;
+        MatrixToImageConfig config = new MatrixToImageConfig(request.getColorBlack(), request.getColorWhite());
+        BufferedImage finalQrImage = ImageUtil.makeImage(encoded.code, request.getQuietZone(), qrRect.width, config);
 
-            MatrixToImageConfig config = new MatrixToImageConfig(colorBlack, colorWhite);
-            BufferedImage finalQrImage = MatrixToImageWriter.toBufferedImage(bitMatrix, config);
+        Rectangle inputImageRect = new Rectangle(new Point(0, 0), request.getWidth(), request.getHeight());
+        Rectangle finalRect = qrRect.union(inputImageRect);
 
-            Rectangle finalRect = qrRect.union(inputImageRect);
-            BufferedImage finalImage = new BufferedImage(finalRect.width, finalRect.height, BufferedImage.TYPE_INT_ARGB);
-            Graphics graphics = finalImage.createGraphics();
-            graphics.drawImage(input,
-                    inputImageRect.start.x - finalRect.start.x, inputImageRect.start.y - finalRect.start.y,
-                    inputImageRect.width, inputImageRect.height, null);
-            graphics.drawImage(finalQrImage,
+        // nothing of the input shows, keep the two colors of the code packed
+        if(!showsInput(input, inputImageRect, qrRect, config)) {
+            if(finalRect.width == qrRect.width && finalRect.height == qrRect.height) {
+                return finalQrImage;
+            }
+            return ImageUtil.placeOnTransparent(finalQrImage,
                     qrRect.start.x - finalRect.start.x, qrRect.start.y - finalRect.start.y,
-                    qrRect.width, qrRect.height, null);
-            graphics.dispose();
+                    finalRect.width, finalRect.height);
+        }
 
-            ImageIO.write(finalImage, outputFormat, new File(output));
-        } catch (Exception e) {
-            LOGGER.error("encode error", e);
+        BufferedImage finalImage = new BufferedImage(finalRect.width, finalRect.height, BufferedImage.TYPE_INT_ARGB);
+        Graphics graphics = finalImage.createGraphics();
+        graphics.drawImage(input,
+                inputImageRect.start.x - finalRect.start.x, inputImageRect.start.y - finalRect.start.y,
+                inputImageRect.width, inputImageRect.height, null);
+        graphics.drawImage(finalQrImage,
+                qrRect.start.x - finalRect.start.x, qrRect.start.y - finalRect.start.y,
+                qrRect.width, qrRect.height, null);
+        graphics.dispose();
+
+        return finalImage;
+    }
+
+    /**
+     * A QR code together with where it goes on the output image.
+     */
+    static final class Encoded {
+        final int version;
+        final Image image;
+        final QRCode code;
+        final Rectangle qrRect;
+
+        Encoded(int version, Image image, QRCode code, Rectangle qrRect) {
+            this.version = version;
+            this.image = image;
+            this.code = code;
+            this.qrRect = qrRect;
+        }
+    }
+
+    public static void write(BufferedImage image, Request request) throws IOException {
+        if(!ImageIO.write(image, request.getFormat(), new File(request.getOutput()))) {
+            throw new IOException("Could not write an image of format " + request.getFormat() + " to " + request.getOutput());
         }
+    }
+
+    static int parseAuto(String value) {
+        return "auto".equals(value) ? MaskSearch.AUTO : Integer.parseInt(value);
+    }
 
+    static int parseColor(String color) {
+        return (int) Long.parseLong(color, 16);
     }
 
     private static void configLog(String configFile) {
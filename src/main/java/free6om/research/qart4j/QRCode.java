@@ -5,11 +5,18 @@ package free6om.research.qart4j;
  */
 public class QRCode {
     private byte[] bytes;
-    private Pixel[][] pixels;
+    private int size;
+    // packed Pixel values, row after row
+    private int[] modules;
 
     public QRCode(byte[] bytes, Pixel[][] pixels) {
+        this(bytes, Pixel.toModules(pixels), pixels.length);
+    }
+
+    public QRCode(byte[] bytes, int[] modules, int size) {
         this.bytes = bytes;
-        this.pixels = pixels;
+        this.modules = modules;
+        this.size = size;
     }
 
     public byte[] getBytes() {
@@ -20,11 +27,40 @@ public class QRCode {
         this.bytes = bytes;
     }
 
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * @return a copy of the packed modules, the code's own array may be shared with a cached {@link Plan}
+     */
+    public int[] getModules() {
+        return modules.clone();
+    }
+
+    /**
+     * @return a copy of the modules as {@link Pixel} objects
+     */
     public Pixel[][] getPixels() {
-        return pixels;
+        return Pixel.toPixels(modules, size);
     }
 
     public void setPixels(Pixel[][] pixels) {
-        this.pixels = pixels;
+        this.modules = Pixel.toModules(pixels);
+        this.size = pixels.length;
+    }
+
+    public boolean isBlack(int x, int y) {
+        int pixel = modules[y*size + x];
+        if(Pixel.isDataOrCheck(pixel)) {
+            int offset = Pixel.offset(pixel);
+            int value = (bytes[offset/8]>>(7-offset&7))&0x1;
+            if(Pixel.shouldInvert(pixel)) {
+                value ^= Pixel.value(pixel);
+            }
+            return value != 0;
+        }
+
+        return Pixel.value(pixel) != 0;
     }
 }
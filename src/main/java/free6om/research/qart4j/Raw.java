@@ -10,6 +10,8 @@ public class Raw implements Encoding {
 
     private String raw;
     private String encoding;
+    // raw in encoding, made on first use
+    private byte[] bytes;
 
     public Raw(String raw) {
         this.raw = raw;
@@ -29,28 +31,27 @@ public class Raw implements Encoding {
     private int[] rawLength = new int[]{8, 16, 16};
     @Override
     public int availableBits(Version version) {
-        try {
-            return 4 + rawLength[version.getSize()] + raw.getBytes(encoding).length * 8;
-        } catch (UnsupportedEncodingException e) {
-            throw new IllegalArgumentException(e);
-        }
+        return 4 + rawLength[version.getSize()] + bytes().length * 8;
     }
 
     @Override
     public void encode(Bits bits, Version version) {
         bits.write(4, 4);
-        byte[] data = null;
-        try {
-            data = raw.getBytes(encoding);
-        } catch (UnsupportedEncodingException e) {
-            throw new IllegalArgumentException(e);
-        }
-
+        byte[] data = bytes();
         bits.write(data.length, rawLength[version.getSize()]);
+        bits.write(data, 0, data.length);
+    }
 
-        for(int i = 0;i < data.length;i++) {
-            bits.write(data[i], 8);
+    private byte[] bytes() {
+        if(bytes == null) {
+            try {
+                bytes = raw.getBytes(encoding);
+            } catch (UnsupportedEncodingException e) {
+                throw new IllegalArgumentException(e);
+            }
         }
+
+        return bytes;
     }
 
     @Override
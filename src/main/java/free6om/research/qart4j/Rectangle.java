@@ -47,6 +47,15 @@ public class Rectangle {
         return new Rectangle(new Point(startX, startY), width, height);
     }
 
+    public boolean contains(Rectangle other) {
+        if(other == null || other.start == null || this.start == null) {
+            return false;
+        }
+
+        return other.start.x >= this.start.x && other.start.x + other.width <= this.start.x + this.width &&
+                other.start.y >= this.start.y && other.start.y + other.height <= this.start.y + this.height;
+    }
+
     public Rectangle union(Rectangle other) {
         if(other == null || other.start == null || this.start == null) {
             return null;
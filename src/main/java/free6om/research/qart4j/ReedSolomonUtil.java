@@ -1,23 +1,188 @@
 package free6om.research.qart4j;
 
-import com.google.zxing.common.reedsolomon.ReedSolomonEncoder;
-
 /**
+ * Reed-Solomon check bytes for QR codes.
+ *
+ * QR codes only use GF(256) with the 0x11d primitive polynomial and generator
+ * polynomials of 7 to 30 check bytes, so the product of every byte value with every
+ * generator coefficient is tabulated up front and encoding is a shift register driven by
+ * table lookups. Nothing is allocated per call, check bytes go into a caller provided buffer.
+ *
  * Created by free6om on 7/21/15.
  */
 public class ReedSolomonUtil {
-    public static byte[] generateECBytes(ReedSolomonEncoder encoder, byte[] dataBytes, int position, int length, int numEcBytesInBlock) {
-        int numDataBytes = length;
-        int[] toEncode = new int[numDataBytes + numEcBytesInBlock];
-        for (int i = 0; i < numDataBytes; i++) {
-            toEncode[i] = dataBytes[position + i] & 0xFF;
+    public static final int MIN_CHECK_BYTES = 7;
+    public static final int MAX_CHECK_BYTES = 30;
+
+    private static final int PRIMITIVE = 0x011D;
+
+    private static final int[] EXP = new int[512];
+    private static final int[] LOG = new int[256];
+
+    // PRODUCTS[n][factor*n + i] = factor * (coefficient i of the degree n generator, highest first, leading 1 left out)
+    private static final byte[][] PRODUCTS = new byte[MAX_CHECK_BYTES + 1][];
+
+    static {
+        int x = 1;
+        for(int i = 0;i < 255;i++) {
+            EXP[i] = x;
+            LOG[x] = i;
+            x <<= 1;
+            if(x >= 0x100) {
+                x ^= PRIMITIVE;
+            }
+        }
+        for(int i = 255;i < EXP.length;i++) {
+            EXP[i] = EXP[i - 255];
         }
-        encoder.encode(toEncode, numEcBytesInBlock);
 
-        byte[] ecBytes = new byte[numEcBytesInBlock];
-        for (int i = 0; i < numEcBytesInBlock; i++) {
-            ecBytes[i] = (byte) toEncode[numDataBytes + i];
+        for(int n = MIN_CHECK_BYTES;n <= MAX_CHECK_BYTES;n++) {
+            int[] generator = generator(n);
+            byte[] products = new byte[256 * n];
+            for(int factor = 1;factor < 256;factor++) {
+                for(int i = 0;i < n;i++) {
+                    products[factor*n + i] = (byte) multiply(factor, generator[i + 1]);
+                }
+            }
+            PRODUCTS[n] = products;
+        }
+    }
+
+    /**
+     * Computes the check bytes of {@code dataBytes[position, position + length)} into
+     * {@code ecBytes[ecPosition, ecPosition + numEcBytesInBlock)}. The two ranges must not overlap.
+     */
+    public static void generateECBytes(byte[] dataBytes, int position, int length,
+                                       byte[] ecBytes, int ecPosition, int numEcBytesInBlock) {
+        if(numEcBytesInBlock < MIN_CHECK_BYTES || numEcBytesInBlock > MAX_CHECK_BYTES) {
+            throw new IllegalArgumentException("unsupported number of check bytes: " + numEcBytesInBlock);
         }
+
+        byte[] products = PRODUCTS[numEcBytesInBlock];
+        int last = ecPosition + numEcBytesInBlock - 1;
+        for(int i = ecPosition;i <= last;i++) {
+            ecBytes[i] = 0;
+        }
+
+        for(int i = 0;i < length;i++) {
+            int factor = (dataBytes[position + i] ^ ecBytes[ecPosition]) & 0xFF;
+            System.arraycopy(ecBytes, ecPosition + 1, ecBytes, ecPosition, numEcBytesInBlock - 1);
+            ecBytes[last] = 0;
+            if(factor != 0) {
+                int row = factor * numEcBytesInBlock;
+                for(int j = 0;j < numEcBytesInBlock;j++) {
+                    ecBytes[ecPosition + j] ^= products[row + j];
+                }
+            }
+        }
+    }
+
+    public static byte[] generateECBytes(byte[] dataBytes, int position, int length, int numEcBytesInBlock) {
+        byte[] ecBytes = new byte[numEcBytesInBlock];
+        generateECBytes(dataBytes, position, length, ecBytes, 0, numEcBytesInBlock);
         return ecBytes;
     }
+
+    /**
+     * Computes the check bytes of every block of a code in one call. The blocks lie back to back
+     * from {@code position} the way QR codes split their data: the first
+     * {@code numberOfBlocks - numberOfExtraBytes} blocks have {@code numberOfDataBytesPerBlock} bytes,
+     * the others one byte more. Check bytes of block i go to {@code ecPosition + i*numEcBytesInBlock}.
+     */
+    public static void generateBlockECBytes(byte[] dataBytes, int position, int numberOfBlocks,
+                                            int numberOfDataBytesPerBlock, int numberOfExtraBytes,
+                                            byte[] ecBytes, int ecPosition, int numEcBytesInBlock) {
+        int numberOfShortBlocks = numberOfBlocks - numberOfExtraBytes;
+        generateECBytes(dataBytes, position, numberOfDataBytesPerBlock, numberOfShortBlocks, numberOfDataBytesPerBlock,
+                ecBytes, ecPosition, numEcBytesInBlock, numEcBytesInBlock);
+        generateECBytes(dataBytes, position + numberOfShortBlocks*numberOfDataBytesPerBlock, numberOfDataBytesPerBlock + 1,
+                numberOfExtraBytes, numberOfDataBytesPerBlock + 1,
+                ecBytes, ecPosition + numberOfShortBlocks*numEcBytesInBlock, numEcBytesInBlock, numEcBytesInBlock);
+    }
+
+    /**
+     * Computes the check bytes of {@code count} equally long messages in one call, for example the
+     * same block of many codes. Message k starts at {@code position + k*dataStride}, its check bytes
+     * go to {@code ecPosition + k*ecStride}.
+     *
+     * The messages are encoded in lock step, one data byte of every message at a time, so the
+     * shift registers of independent messages overlap in the pipeline instead of waiting on each
+     * other. The registers rotate in place rather than being shifted, and are put back in order
+     * once at the end.
+     */
+    public static void generateECBytes(byte[] dataBytes, int position, int dataStride, int count, int length,
+                                       byte[] ecBytes, int ecPosition, int ecStride, int numEcBytesInBlock) {
+        if(numEcBytesInBlock < MIN_CHECK_BYTES || numEcBytesInBlock > MAX_CHECK_BYTES) {
+            throw new IllegalArgumentException("unsupported number of check bytes: " + numEcBytesInBlock);
+        }
+
+        int n = numEcBytesInBlock;
+        byte[] products = PRODUCTS[n];
+        for(int k = 0;k < count;k++) {
+            int register = ecPosition + k*ecStride;
+            for(int j = 0;j < n;j++) {
+                ecBytes[register + j] = 0;
+            }
+        }
+
+        // register j of a message is at (head + j) % n
+        int head = 0;
+        for(int i = 0;i < length;i++) {
+            int next = head + 1 == n ? 0 : head + 1;
+            int wrap = n - next;
+            for(int k = 0;k < count;k++) {
+                int register = ecPosition + k*ecStride;
+                int factor = (dataBytes[position + k*dataStride + i] ^ ecBytes[register + head]) & 0xFF;
+                ecBytes[register + head] = 0;
+                if(factor == 0) {
+                    continue;
+                }
+
+                int row = factor * n;
+                for(int j = 0;j < wrap;j++) {
+                    ecBytes[register + next + j] ^= products[row + j];
+                }
+                for(int j = wrap;j < n;j++) {
+                    ecBytes[register + j - wrap] ^= products[row + j];
+                }
+            }
+            head = next;
+        }
+
+        if(head != 0) {
+            for(int k = 0;k < count;k++) {
+                int register = ecPosition + k*ecStride;
+                reverse(ecBytes, register, register + head - 1);
+                reverse(ecBytes, register + head, register + n - 1);
+                reverse(ecBytes, register, register + n - 1);
+            }
+        }
+    }
+
+    private static void reverse(byte[] bytes, int from, int to) {
+        while (from < to) {
+            byte tmp = bytes[from];
+            bytes[from++] = bytes[to];
+            bytes[to--] = tmp;
+        }
+    }
+
+    private static int multiply(int a, int b) {
+        if(a == 0 || b == 0) {
+            return 0;
+        }
+        return EXP[LOG[a] + LOG[b]];
+    }
+
+    // (x - a^0)(x - a^1)...(x - a^(n-1)), coefficients highest degree first
+    private static int[] generator(int n) {
+        int[] generator = new int[n + 1];
+        generator[0] = 1;
+        for(int i = 0;i < n;i++) {
+            for(int j = i + 1;j > 0;j--) {
+                generator[j] ^= multiply(generator[j - 1], EXP[i]);
+            }
+        }
+        return generator;
+    }
 }
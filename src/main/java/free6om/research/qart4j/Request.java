@@ -1,12 +1,44 @@
 package free6om.research.qart4j;
 
 /**
+ * Everything needed to produce one output image, with the same defaults as the command line.
+ *
  * Created by free6om on 7/21/15.
  */
 public class Request {
-    private int width;
-    private int height;
-    private int quietZone;
+    //input
+    private String input = "input.png";
+    private String url = "http://free6om.me";
+
+    //QR code
+    private int version = 6;
+    private int autoVersions = VersionSearch.DEFAULT_CANDIDATES;
+    private int mask = 2;
+    private int quietZone = 2;
+    private int rotation = 0;
+    private int size = 0;
+    private int colorBlack = 0xFF000000;
+    private int colorWhite = 0xFFFFFFFF;
+
+    //how to generate QR code
+    private boolean randControl = false;
+    private long seed = -1;
+    private boolean dither = false;
+    private boolean onlyDataBits = false;
+    private boolean saveControl = false;
+
+    //output image
+    private Integer marginTop;
+    private Integer marginBottom;
+    private Integer marginLeft;
+    private Integer marginRight;
+    private int width = 180;
+    private int height = 180;
+    private String format = "PNG";
+    private String output = "output.png";
+
+    public Request() {
+    }
 
     public Request(int width, int height, int quietZone) {
         this.width = width;
@@ -14,6 +46,184 @@ public class Request {
         this.quietZone = quietZone;
     }
 
+    public Request(Request other) {
+        this.input = other.input;
+        this.url = other.url;
+        this.version = other.version;
+        this.autoVersions = other.autoVersions;
+        this.mask = other.mask;
+        this.quietZone = other.quietZone;
+        this.rotation = other.rotation;
+        this.size = other.size;
+        this.colorBlack = other.colorBlack;
+        this.colorWhite = other.colorWhite;
+        this.randControl = other.randControl;
+        this.seed = other.seed;
+        this.dither = other.dither;
+        this.onlyDataBits = other.onlyDataBits;
+        this.saveControl = other.saveControl;
+        this.marginTop = other.marginTop;
+        this.marginBottom = other.marginBottom;
+        this.marginLeft = other.marginLeft;
+        this.marginRight = other.marginRight;
+        this.width = other.width;
+        this.height = other.height;
+        this.format = other.format;
+        this.output = other.output;
+    }
+
+    public String getInput() {
+        return input;
+    }
+
+    public void setInput(String input) {
+        this.input = input;
+    }
+
+    public String getUrl() {
+        return url;
+    }
+
+    public void setUrl(String url) {
+        this.url = url;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    public void setVersion(int version) {
+        this.version = version;
+    }
+
+    public int getAutoVersions() {
+        return autoVersions;
+    }
+
+    public void setAutoVersions(int autoVersions) {
+        this.autoVersions = autoVersions;
+    }
+
+    public int getMask() {
+        return mask;
+    }
+
+    public void setMask(int mask) {
+        this.mask = mask;
+    }
+
+    public int getQuietZone() {
+        return quietZone;
+    }
+
+    public void setQuietZone(int quietZone) {
+        this.quietZone = quietZone;
+    }
+
+    public int getRotation() {
+        return rotation;
+    }
+
+    public void setRotation(int rotation) {
+        this.rotation = rotation;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public void setSize(int size) {
+        this.size = size;
+    }
+
+    public int getColorBlack() {
+        return colorBlack;
+    }
+
+    public void setColorBlack(int colorBlack) {
+        this.colorBlack = colorBlack;
+    }
+
+    public int getColorWhite() {
+        return colorWhite;
+    }
+
+    public void setColorWhite(int colorWhite) {
+        this.colorWhite = colorWhite;
+    }
+
+    public boolean isRandControl() {
+        return randControl;
+    }
+
+    public void setRandControl(boolean randControl) {
+        this.randControl = randControl;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    public boolean isDither() {
+        return dither;
+    }
+
+    public void setDither(boolean dither) {
+        this.dither = dither;
+    }
+
+    public boolean isOnlyDataBits() {
+        return onlyDataBits;
+    }
+
+    public void setOnlyDataBits(boolean onlyDataBits) {
+        this.onlyDataBits = onlyDataBits;
+    }
+
+    public boolean isSaveControl() {
+        return saveControl;
+    }
+
+    public void setSaveControl(boolean saveControl) {
+        this.saveControl = saveControl;
+    }
+
+    public Integer getMarginTop() {
+        return marginTop;
+    }
+
+    public void setMarginTop(Integer marginTop) {
+        this.marginTop = marginTop;
+    }
+
+    public Integer getMarginBottom() {
+        return marginBottom;
+    }
+
+    public void setMarginBottom(Integer marginBottom) {
+        this.marginBottom = marginBottom;
+    }
+
+    public Integer getMarginLeft() {
+        return marginLeft;
+    }
+
+    public void setMarginLeft(Integer marginLeft) {
+        this.marginLeft = marginLeft;
+    }
+
+    public Integer getMarginRight() {
+        return marginRight;
+    }
+
+    public void setMarginRight(Integer marginRight) {
+        this.marginRight = marginRight;
+    }
+
     public int getWidth() {
         return width;
     }
@@ -30,11 +240,19 @@ public class Request {
         this.height = height;
     }
 
-    public int getQuietZone() {
-        return quietZone;
+    public String getFormat() {
+        return format;
     }
 
-    public void setQuietZone(int quietZone) {
-        this.quietZone = quietZone;
+    public void setFormat(String format) {
+        this.format = format;
+    }
+
+    public String getOutput() {
+        return output;
+    }
+
+    public void setOutput(String output) {
+        this.output = output;
     }
 }
@@ -0,0 +1,241 @@
+package free6om.research.qart4j;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Generated images on disk, addressed by a hash of everything that decides them: the input's
+ * content, every request field but the output file and the {@link #OUTPUT_VERSION} of the
+ * encoder. Encoding is seeded, so the same key always means the same bytes; requests with a
+ * random seed are never cached.
+ *
+ * An image is written to a temporary file and moved into place in one step, so readers, in this
+ * process or another, only ever see complete files and need no lock. Reading a file marks it as
+ * used; once the directory holds more than its maximum size the least recently used files are
+ * deleted until it is back under 90% of it.
+ */
+public class ResultCache {
+    private static final Logger LOGGER = LoggerFactory.getLogger(ResultCache.class);
+    private static final String TEMPORARY_SUFFIX = ".part";
+    /**
+     * Version of the encoder's output, part of every key. Bump it whenever the same request
+     * starts producing different bytes, so results of older releases are no longer served.
+     */
+    static final int OUTPUT_VERSION = 1;
+
+    private final Path directory;
+    private final long maximumBytes;
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Writes the content of a result, called on a miss only.
+     */
+    public interface Content {
+        void writeTo(OutputStream output) throws IOException, QArtException;
+    }
+
+    public ResultCache(Path directory, long maximumBytes) throws IOException {
+        if(maximumBytes < 1) {
+            throw new IllegalArgumentException("maximum bytes must be positive");
+        }
+        this.directory = directory;
+        this.maximumBytes = maximumBytes;
+        Files.createDirectories(directory);
+        long total = 0;
+        for(Path file : files()) {
+            total += sizeOf(file);
+        }
+        bytes.set(total);
+    }
+
+    /**
+     * @param inputHash content hash of the input, see {@link InputCache#hashOf(java.awt.image.BufferedImage)}
+     * @return the key of request's result, null if it can't be cached
+     */
+    public static String key(String inputHash, Request request) {
+        if(inputHash == null || request.getSeed() == -1) {
+            return null;
+        }
+
+        String description = OUTPUT_VERSION + "|" + inputHash + "|" + request.getUrl() +
+                "|" + request.getVersion() + "|" + request.getAutoVersions() +
+                "|" + request.getMask() + "|" + request.getQuietZone() + "|" + request.getRotation() +
+                "|" + request.getSize() + "|" + request.getColorBlack() + "|" + request.getColorWhite() +
+                "|" + request.isRandControl() + "|" + request.getSeed() + "|" + request.isDither() +
+                "|" + request.isOnlyDataBits() + "|" + request.isSaveControl() +
+                "|" + request.getMarginTop() + "|" + request.getMarginBottom() +
+                "|" + request.getMarginLeft() + "|" + request.getMarginRight() +
+                "|" + request.getWidth() + "|" + request.getHeight() + "|" + request.getFormat().toLowerCase();
+
+        return InputCache.hash(description.getBytes(StandardCharsets.UTF_8)) + "." + request.getFormat().toLowerCase();
+    }
+
+    /**
+     * Copies the result cached under key to output.
+     *
+     * @return false, with nothing written, if there is none
+     */
+    public boolean copyTo(String key, OutputStream output) throws IOException {
+        Path file = pathOf(key);
+        try {
+            Files.copy(file, output);
+        } catch (NoSuchFileException e) {
+            misses.incrementAndGet();
+            return false;
+        }
+        hits.incrementAndGet();
+        try {
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (IOException e) {
+            // evicted meanwhile, the copy is already complete
+        }
+
+        return true;
+    }
+
+    /**
+     * Writes content to output and keeps it under key.
+     */
+    public void store(String key, Content content, OutputStream output) throws IOException, QArtException {
+        Path file = pathOf(key);
+        Files.createDirectories(file.getParent());
+        Path temporary = Files.createTempFile(file.getParent(), file.getFileName().toString(), TEMPORARY_SUFFIX);
+        try {
+            OutputStream out = new BufferedOutputStream(Files.newOutputStream(temporary));
+            try {
+                content.writeTo(out);
+            } finally {
+                out.close();
+            }
+            Files.copy(temporary, output);
+            long size = Files.size(temporary);
+            // stored meanwhile by a concurrent miss, its size is counted already
+            long replaced = sizeOf(file);
+            Files.move(temporary, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            if(bytes.addAndGet(size - replaced) > maximumBytes) {
+                evict();
+            }
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getBytes() {
+        return bytes.get();
+    }
+
+    /**
+     * @return hits and misses, for logging
+     */
+    public String stats() {
+        return getHits() + " hits, " + getMisses() + " misses, " + getBytes() + " bytes";
+    }
+
+    private Path pathOf(String key) {
+        return directory.resolve(key.substring(0, 2)).resolve(key);
+    }
+
+    private synchronized void evict() throws IOException {
+        if(bytes.get() <= maximumBytes) {
+            return;
+        }
+
+        List<Path> files = files();
+        final Map<Path, FileTime> used = new HashMap<Path, FileTime>();
+        long total = 0;
+        for(Path file : files) {
+            used.put(file, lastModified(file));
+            total += sizeOf(file);
+        }
+        Collections.sort(files, new Comparator<Path>() {
+            @Override
+            public int compare(Path a, Path b) {
+                return used.get(a).compareTo(used.get(b));
+            }
+        });
+
+        long target = maximumBytes / 10 * 9;
+        int deleted = 0;
+        for(int i = 0;i < files.size() && total > target;i++) {
+            Path file = files.get(i);
+            long size = sizeOf(file);
+            if(Files.deleteIfExists(file)) {
+                total -= size;
+                deleted++;
+            }
+        }
+        bytes.set(total);
+        LOGGER.debug("evicted {} results, {} bytes left", deleted, total);
+    }
+
+    // every cached result, temporary files left out
+    private List<Path> files() throws IOException {
+        List<Path> files = new ArrayList<Path>();
+        DirectoryStream<Path> directories = Files.newDirectoryStream(directory);
+        try {
+            for(Path subdirectory : directories) {
+                if(!Files.isDirectory(subdirectory)) {
+                    continue;
+                }
+                DirectoryStream<Path> entries = Files.newDirectoryStream(subdirectory);
+                try {
+                    for(Path file : entries) {
+                        if(!file.getFileName().toString().endsWith(TEMPORARY_SUFFIX)) {
+                            files.add(file);
+                        }
+                    }
+                } finally {
+                    entries.close();
+                }
+            }
+        } finally {
+            directories.close();
+        }
+
+        return files;
+    }
+
+    private static long sizeOf(Path file) {
+        try {
+            return Files.size(file);
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private static FileTime lastModified(Path file) {
+        try {
+            return Files.getLastModifiedTime(file);
+        } catch (IOException e) {
+            return FileTime.fromMillis(0);
+        }
+    }
+}
@@ -0,0 +1,270 @@
+package free6om.research.qart4j;
+
+import com.google.gson.JsonObject;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Serves images over HTTP, so callers don't pay for a new JVM, plan and parity basis per image.
+ *
+ * GET or POST /encode takes the long command line option names as query parameters, missing
+ * ones fall back to the defaults request. A POST body is decoded as the input image, otherwise
+ * the "input" parameter names an image file in the input directory, and without an input
+ * directory the image has to be posted; either way the decoded image is kept in the
+ * {@link InputCache} for later requests with the same content. The response is the image in the
+ * requested format; bad requests get a 400, bodies over the maximum body size a 413, both with a
+ * plain text message. Requests whose width, height, size, margins or quiet zone ask for more
+ * pixels than the maximum image size are bad requests, so are versions out of range.
+ */
+public class Server {
+    private static final Logger LOGGER = LoggerFactory.getLogger(Server.class);
+
+    public static final int DEFAULT_MAXIMUM_BODY_SIZE = 16 << 20;
+    public static final int DEFAULT_MAXIMUM_IMAGE_SIZE = 4096;
+
+    private final Request defaults;
+    private final HttpServer httpServer;
+    private final ExecutorService executor;
+    private File inputDirectory;
+    private int maximumBodySize = DEFAULT_MAXIMUM_BODY_SIZE;
+    private int maximumImageSize = DEFAULT_MAXIMUM_IMAGE_SIZE;
+
+    public Server(Request defaults, InetSocketAddress address, int threads) throws IOException {
+        if(threads < 1) {
+            throw new IllegalArgumentException("threads should be at least 1, got " + threads);
+        }
+        this.defaults = defaults;
+        this.executor = Executors.newFixedThreadPool(threads);
+        this.httpServer = HttpServer.create(address, 0);
+        this.httpServer.setExecutor(executor);
+        this.httpServer.createContext("/encode", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    encode(exchange);
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+    }
+
+    public void start() {
+        httpServer.start();
+        LOGGER.info("listening on " + getAddress());
+    }
+
+    public void stop(int delaySeconds) {
+        httpServer.stop(delaySeconds);
+        executor.shutdown();
+        LOGGER.info("input cache: " + InputCache.stats());
+        if(QArt.getResultCache() != null) {
+            LOGGER.info("result cache: " + QArt.getResultCache().stats());
+        }
+    }
+
+    public InetSocketAddress getAddress() {
+        return httpServer.getAddress();
+    }
+
+    /**
+     * @param inputDirectory directory the "input" parameter is resolved in and may not leave,
+     *                       null to only take posted images
+     */
+    public void setInputDirectory(File inputDirectory) {
+        this.inputDirectory = inputDirectory;
+    }
+
+    public File getInputDirectory() {
+        return inputDirectory;
+    }
+
+    /**
+     * @param maximumBodySize bytes a posted image may have, larger bodies are answered with a 413
+     */
+    public void setMaximumBodySize(int maximumBodySize) {
+        if(maximumBodySize < 0) {
+            throw new IllegalArgumentException("maximum body size must not be negative");
+        }
+        this.maximumBodySize = maximumBodySize;
+    }
+
+    public int getMaximumBodySize() {
+        return maximumBodySize;
+    }
+
+    /**
+     * @param maximumImageSize pixels the width, height, size and margins of a request may each
+     *                         have, larger ones are answered with a 400
+     */
+    public void setMaximumImageSize(int maximumImageSize) {
+        if(maximumImageSize < 1) {
+            throw new IllegalArgumentException("maximum image size should be at least 1, got " + maximumImageSize);
+        }
+        this.maximumImageSize = maximumImageSize;
+    }
+
+    public int getMaximumImageSize() {
+        return maximumImageSize;
+    }
+
+    private void encode(HttpExchange exchange) throws IOException {
+        String method = exchange.getRequestMethod();
+        if(!"GET".equals(method) && !"POST".equals(method)) {
+            respond(exchange, 405, "only GET and POST are supported");
+            return;
+        }
+
+        byte[] posted = readAll(exchange.getRequestBody(), maximumBodySize);
+        if(posted == null) {
+            respond(exchange, 413, "request body larger than " + maximumBodySize + " bytes");
+            return;
+        }
+
+        Request request;
+        BufferedImage input;
+        try {
+            request = Batch.toRequest(defaults, parseQuery(exchange.getRequestURI().getRawQuery()));
+            checkDimensions(request);
+            if(posted.length > 0) {
+                input = InputCache.load(posted, request.getWidth(), request.getHeight());
+            } else {
+                input = InputCache.load(inputFile(request.getInput()).getPath(), request.getWidth(), request.getHeight());
+            }
+        } catch (Exception e) {
+            respond(exchange, 400, "bad request: " + e.getMessage());
+            return;
+        }
+
+        byte[] image;
+        try {
+            if(!QArt.isSupportedFormat(request.getFormat())) {
+                respond(exchange, 400, "unsupported format: " + request.getFormat());
+                return;
+            }
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            QArt.generate(request, input, output);
+            image = output.toByteArray();
+        } catch (QArtException e) {
+            respond(exchange, 400, e.getMessage());
+            return;
+        } catch (Exception e) {
+            LOGGER.error("encode error", e);
+            respond(exchange, 500, "encode error: " + e.getMessage());
+            return;
+        }
+
+        String contentType = SvgWriter.FORMAT.equalsIgnoreCase(request.getFormat()) ?
+                "image/svg+xml" : "image/" + request.getFormat().toLowerCase();
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(200, image.length);
+        OutputStream body = exchange.getResponseBody();
+        body.write(image);
+        body.close();
+    }
+
+    private static JsonObject parseQuery(String query) throws UnsupportedEncodingException {
+        JsonObject json = new JsonObject();
+        if(query == null) {
+            return json;
+        }
+        for(String parameter : query.split("&")) {
+            if(parameter.isEmpty()) {
+                continue;
+            }
+            int equals = parameter.indexOf('=');
+            String name = equals < 0 ? parameter : parameter.substring(0, equals);
+            String value = equals < 0 ? "true" : parameter.substring(equals + 1);
+            json.addProperty(URLDecoder.decode(name, "UTF-8"), URLDecoder.decode(value, "UTF-8"));
+        }
+
+        return json;
+    }
+
+    // everything that sizes the output, checked before any image is decoded or allocated
+    private void checkDimensions(Request request) throws QArtException {
+        int version = request.getVersion();
+        if(version == VersionSearch.AUTO) {
+            version = Version.MAX_VERSION;
+        } else if(version < Version.MIN_VERSION || version > Version.MAX_VERSION) {
+            throw new VersionException("wrong qr version: " + version);
+        }
+        checkDimension("width", request.getWidth());
+        checkDimension("height", request.getHeight());
+        checkDimension("size", request.getSize());
+        if(request.getQuietZone() < 0 || request.getQuietZone() > maximumImageSize) {
+            throw new QArtException("quiet should be between 0 and " + maximumImageSize + ", got " + request.getQuietZone());
+        }
+        // the code is never drawn smaller than one pixel per module
+        checkDimension("size with the quiet zone", 17 + 4*version + 2*request.getQuietZone());
+        Integer[] margins = {request.getMarginTop(), request.getMarginBottom(), request.getMarginLeft(), request.getMarginRight()};
+        for(Integer margin : margins) {
+            if(margin != null && Math.abs((long) margin) > maximumImageSize) {
+                throw new QArtException("margins should be at most " + maximumImageSize + " pixels, got " + margin);
+            }
+        }
+    }
+
+    private void checkDimension(String name, int pixels) throws QArtException {
+        if(pixels < 0 || pixels > maximumImageSize) {
+            throw new QArtException(name + " should be between 0 and " + maximumImageSize + " pixels, got " + pixels);
+        }
+    }
+
+    // input resolved in the input directory, links followed, refused if it ends up outside of it
+    private File inputFile(String input) throws IOException, QArtException {
+        if(inputDirectory == null) {
+            throw new QArtException("no image posted and the server has no input directory");
+        }
+        Path directory = inputDirectory.toPath().toRealPath();
+        Path file = directory.resolve(input).toRealPath();
+        if(!file.startsWith(directory)) {
+            throw new QArtException("input is outside of the input directory: " + input);
+        }
+
+        return file.toFile();
+    }
+
+    /**
+     * @return everything in, null once it is longer than maximumSize
+     */
+    private static byte[] readAll(InputStream in, int maximumSize) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int n;
+        while ((n = in.read(buffer)) > 0) {
+            if(bytes.size() + n > maximumSize) {
+                return null;
+            }
+            bytes.write(buffer, 0, n);
+        }
+
+        return bytes.toByteArray();
+    }
+
+    private static void respond(HttpExchange exchange, int code, String message) throws IOException {
+        byte[] bytes = message.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(code, bytes.length);
+        OutputStream body = exchange.getResponseBody();
+        body.write(bytes);
+        body.close();
+    }
+}
@@ -0,0 +1,75 @@
+package free6om.research.qart4j;
+
+/**
+ * The generator of {@link java.util.SplittableRandom}, producing the same numbers from the same
+ * seed, except that {@link #split(SplitMix)} reseeds an existing generator instead of making a
+ * new one, so a loop that splits off a generator per task can keep reusing the same ones.
+ * Not thread safe.
+ */
+final class SplitMix {
+    private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+    private long seed;
+    private long gamma;
+
+    SplitMix() {
+        this(0);
+    }
+
+    SplitMix(long seed) {
+        this.seed = seed;
+        this.gamma = GOLDEN_GAMMA;
+    }
+
+    /**
+     * Seeds split as {@link java.util.SplittableRandom#split()} seeds the generator it returns.
+     *
+     * @return split
+     */
+    SplitMix split(SplitMix split) {
+        split.seed = mix64(nextSeed());
+        split.gamma = mixGamma(nextSeed());
+        return split;
+    }
+
+    /**
+     * @see java.util.SplittableRandom#nextInt(int)
+     */
+    int nextInt(int bound) {
+        if(bound <= 0) {
+            throw new IllegalArgumentException("bound must be positive");
+        }
+        int r = mix32(nextSeed());
+        int m = bound - 1;
+        if((bound & m) == 0) {
+            return r & m;
+        }
+        for(int u = r >>> 1;u + m - (r = u % bound) < 0;u = mix32(nextSeed()) >>> 1) {
+            // rejected, outside the largest multiple of bound
+        }
+        return r;
+    }
+
+    private long nextSeed() {
+        return seed += gamma;
+    }
+
+    private static long mix64(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    private static int mix32(long z) {
+        z = (z ^ (z >>> 33)) * 0x62a9d9ed799705f5L;
+        return (int) (((z ^ (z >>> 28)) * 0xcb24d0a5c88c35b3L) >>> 32);
+    }
+
+    private static long mixGamma(long z) {
+        z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+        z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+        z = (z ^ (z >>> 33)) | 1L;
+        int n = Long.bitCount(z ^ (z >>> 1));
+        return (n < 24) ? z ^ 0xaaaaaaaaaaaaaaaaL : z;
+    }
+}
@@ -0,0 +1,69 @@
+package free6om.research.qart4j;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+/**
+ * Writes a QR code as an SVG drawn in module units: one background rectangle in the off color
+ * and a single path in the on color, where every horizontal run of dark modules is one
+ * rectangle. The document grows with the number of modules only, the output size is just the
+ * width and height it is displayed at.
+ */
+public class SvgWriter {
+    public static final String FORMAT = "svg";
+
+    private SvgWriter() {
+    }
+
+    /**
+     * @param size width and height of the code, quiet zone included, in output pixels
+     */
+    public static void write(QRCode code, int quietZone, int size, MatrixToImageConfig config,
+                             OutputStream output) throws IOException {
+        int modules = code.getSize() + quietZone * 2;
+
+        Writer writer = new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8));
+        writer.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+        writer.write("<svg xmlns=\"http://www.w3.org/2000/svg\" width=\"" + size + "\" height=\"" + size +
+                "\" viewBox=\"0 0 " + modules + " " + modules + "\" shape-rendering=\"crispEdges\">\n");
+        if(config.getPixelOffColor() >>> 24 != 0) {
+            writer.write("<rect width=\"" + modules + "\" height=\"" + modules + "\"" +
+                    fill(config.getPixelOffColor()) + "/>\n");
+        }
+
+        writer.write("<path" + fill(config.getPixelOnColor()) + " d=\"");
+        int inputSize = code.getSize();
+        for(int y = 0;y < inputSize;y++) {
+            int x = 0;
+            while (x < inputSize) {
+                if(!code.isBlack(x, y)) {
+                    x++;
+                    continue;
+                }
+                int start = x;
+                while (x < inputSize && code.isBlack(x, y)) {
+                    x++;
+                }
+                writer.write("M" + (start + quietZone) + " " + (y + quietZone) + "h" + (x - start) + "v1h-" + (x - start) + "z");
+            }
+        }
+        writer.write("\"/>\n");
+        writer.write("</svg>\n");
+        writer.flush();
+    }
+
+    private static String fill(int color) {
+        String fill = String.format(" fill=\"#%06x\"", color & 0xFFFFFF);
+        int alpha = color >>> 24;
+        if(alpha != 0xFF) {
+            fill += String.format(Locale.ROOT, " fill-opacity=\"%.3f\"", alpha / 255.0);
+        }
+
+        return fill;
+    }
+}
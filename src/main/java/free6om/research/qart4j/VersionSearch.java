@@ -0,0 +1,126 @@
+package free6om.research.qart4j;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Picks the QR version for a request whose version is {@link #AUTO}.
+ *
+ * The versions the URL fits in are found from the version table alone, see
+ * {@link Image#fits(String, int)}, so no plan is built for a version that is too small. The
+ * smallest {@link Request#getAutoVersions()} of them are encoded at once and the one with the
+ * lowest {@link Image#relativeScore(QRCode)} wins, ties going to the smaller version. Trying
+ * only one candidate picks the smallest code that fits.
+ */
+public class VersionSearch {
+    private static final Logger LOGGER = LoggerFactory.getLogger(VersionSearch.class);
+
+    public static final int AUTO = MaskSearch.AUTO;
+    public static final int DEFAULT_CANDIDATES = 3;
+
+    private final Request request;
+    private final BufferedImage input;
+    private final long seed;
+
+    public VersionSearch(Request request, BufferedImage input, long seed) {
+        this.request = request;
+        this.input = input;
+        this.seed = seed;
+    }
+
+    /**
+     * @return the smallest count versions url fits in, fewer if there aren't that many
+     */
+    public static int[] candidates(String url, int count) {
+        int[] versions = new int[Version.MAX_VERSION];
+        int n = 0;
+        for(int version = Version.MIN_VERSION;version <= Version.MAX_VERSION && n < count;version++) {
+            if(Image.fits(url, version)) {
+                versions[n++] = version;
+            }
+        }
+
+        int[] result = new int[n];
+        System.arraycopy(versions, 0, result, 0, n);
+        return result;
+    }
+
+    QArt.Encoded search() throws QArtException {
+        if(request.getAutoVersions() < 1) {
+            throw new QArtException("autoVersions should be at least 1, got " + request.getAutoVersions());
+        }
+        int[] versions = candidates(request.getUrl(), request.getAutoVersions());
+        if(versions.length == 0) {
+            throw new QArtException("cannot encode URL into available bits");
+        }
+
+        CandidateTask[] tasks = new CandidateTask[versions.length];
+        for(int i = 0;i < versions.length;i++) {
+            tasks[i] = new CandidateTask(versions[i]);
+        }
+        run(tasks);
+
+        CandidateTask winner = null;
+        QArtException failure = null;
+        for(CandidateTask task : tasks) {
+            if(task.exception != null) {
+                failure = task.exception;
+            } else if(winner == null || task.score < winner.score) {
+                winner = task;
+            }
+        }
+        if(winner == null) {
+            throw failure;
+        }
+        LOGGER.debug("picked version {} with relative score {} out of {} candidates",
+                winner.encoded.version, winner.score, tasks.length);
+
+        return winner.encoded;
+    }
+
+    private static void run(CandidateTask[] tasks) {
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+        if(tasks.length == 1) {
+            tasks[0].compute();
+        } else if(ForkJoinTask.getPool() == pool) {
+            // already a worker of the pool, help with the candidates rather than block on them
+            ForkJoinTask.invokeAll(tasks);
+        } else {
+            for(CandidateTask task : tasks) {
+                pool.execute(task);
+            }
+            for(CandidateTask task : tasks) {
+                task.join();
+            }
+        }
+    }
+
+    private final class CandidateTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int version;
+
+        private QArt.Encoded encoded;
+        private double score;
+        private QArtException exception;
+
+        private CandidateTask(int version) {
+            this.version = version;
+        }
+
+        @Override
+        protected void compute() {
+            try {
+                encoded = QArt.encode(request, version, input, seed);
+                score = encoded.image.relativeScore(encoded.code);
+            } catch (QArtException e) {
+                exception = e;
+            }
+        }
+    }
+}
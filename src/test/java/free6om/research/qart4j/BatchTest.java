@@ -0,0 +1,180 @@
+package free6om.research.qart4j;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Unit test for {@link Batch}.
+ */
+public class BatchTest
+    extends TestCase
+{
+    private File directory;
+
+    public BatchTest(String testName)
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( BatchTest.class );
+    }
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        directory = Files.createTempDirectory("batch").toFile();
+    }
+
+    @Override
+    protected void tearDown()
+    {
+        for (File file : directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    public void testToRequestOverridesDefaults()
+    {
+        Request defaults = new Request();
+        defaults.setUrl("http://example.com/");
+        defaults.setMarginTop(7);
+        JsonObject json = JsonParser.parseString("{\"input\": \"in.png\", \"version\": \"auto\", \"mask\": \"3\","
+                + " \"colorBlack\": \"FF102030\", \"dither\": true, \"seed\": 42, \"marginTop\": null,"
+                + " \"marginLeft\": 4, \"width\": 300, \"format\": \"SVG\"}").getAsJsonObject();
+
+        Request request = Batch.toRequest(defaults, json);
+        assertEquals("in.png", request.getInput());
+        assertEquals("http://example.com/", request.getUrl());
+        assertEquals(VersionSearch.AUTO, request.getVersion());
+        assertEquals(3, request.getMask());
+        assertEquals(0xFF102030, request.getColorBlack());
+        assertTrue(request.isDither());
+        assertEquals(42, request.getSeed());
+        assertNull(request.getMarginTop());
+        assertEquals(Integer.valueOf(4), request.getMarginLeft());
+        assertEquals(300, request.getWidth());
+        assertEquals(defaults.getHeight(), request.getHeight());
+        assertEquals("SVG", request.getFormat());
+
+        // the defaults themselves are left alone
+        assertEquals(Integer.valueOf(7), defaults.getMarginTop());
+        assertEquals("PNG", defaults.getFormat());
+    }
+
+    public void testOneRowPerRequest() throws Exception
+    {
+        BufferedImage image = new BufferedImage(40, 40, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < 40; y++) {
+            for (int x = 0; x < 40; x++) {
+                image.setRGB(x, y, (x*6) << 16 | (y*6) << 8 | 0x80);
+            }
+        }
+        File input = new File(directory, "input.png");
+        ImageIO.write(image, "PNG", input);
+        File output = new File(directory, "output.png");
+
+        Request defaults = new Request();
+        defaults.setVersion(2);
+        String lines = "{\"id\": \"good\", \"input\": " + quote(input) + ", \"output\": " + quote(output) + "}\n"
+                + "\n"
+                + "{not json\n"
+                + "{\"id\": 4, \"input\": " + quote(new File(directory, "missing.png")) + "}\n";
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        PrintStream out = new PrintStream(bytes, true, "UTF-8");
+        new Batch(defaults, 2).run(new StringReader(lines), out);
+
+        Map<Integer, JsonObject> rows = new HashMap<Integer, JsonObject>();
+        for (String row : bytes.toString("UTF-8").split("\n")) {
+            JsonObject json = JsonParser.parseString(row).getAsJsonObject();
+            rows.put(json.get("line").getAsInt(), json);
+        }
+        assertEquals(3, rows.size());
+
+        JsonObject good = rows.get(1);
+        assertEquals("good", good.get("id").getAsString());
+        assertEquals("ok", good.get("status").getAsString());
+        assertEquals(output.getPath(), good.get("output").getAsString());
+        assertTrue(output.length() > 0);
+
+        JsonObject malformed = rows.get(3);
+        assertEquals("error", malformed.get("status").getAsString());
+        assertFalse(malformed.has("id"));
+        assertTrue(malformed.has("error"));
+
+        JsonObject missing = rows.get(4);
+        assertEquals(4, missing.get("id").getAsInt());
+        assertEquals("error", missing.get("status").getAsString());
+        assertTrue(missing.has("millis"));
+    }
+
+    /**
+     * The command line batch keeps stdout to the result lines, even with a log configuration
+     * whose console appender writes DEBUG to System.out.
+     */
+    public void testMainKeepsTheLogOutOfTheResults() throws Exception
+    {
+        File input = new File(directory, "input.png");
+        ImageIO.write(new BufferedImage(40, 40, BufferedImage.TYPE_INT_RGB), "PNG", input);
+        File log4j = new File(directory, "log4j.properties");
+        Files.write(log4j.toPath(), ("log4j.rootLogger=DEBUG, CA\n"
+                + "log4j.appender.CA=org.apache.log4j.ConsoleAppender\n"
+                + "log4j.appender.CA.layout=org.apache.log4j.PatternLayout\n"
+                + "log4j.appender.CA.layout.ConversionPattern=%-5p %c - %m%n\n").getBytes("UTF-8"));
+        File batch = new File(directory, "batch.ndjson");
+        Files.write(batch.toPath(), ("{\"id\": 1, \"output\": " + quote(new File(directory, "a.png")) + "}\n"
+                + "{\"id\": 2, \"input\": " + quote(new File(directory, "missing.png")) + "}\n"
+                + "{\"id\": 3, \"output\": " + quote(new File(directory, "b.png")) + ", \"dither\": true}\n")
+                .getBytes("UTF-8"));
+
+        PrintStream stdout = System.out;
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(bytes, true, "UTF-8"));
+        try {
+            QArt.main(new String[]{"-l", log4j.getPath(), "-i", input.getPath(), "-v", "2",
+                    "--batch", batch.getPath(), "--workers", "2"});
+        } finally {
+            System.setOut(stdout);
+        }
+
+        String[] lines = bytes.toString("UTF-8").split("\n");
+        assertEquals(3, lines.length);
+        for (String line : lines) {
+            JsonObject row = JsonParser.parseString(line).getAsJsonObject();
+            assertTrue(line, row.has("status"));
+        }
+    }
+
+    public void testNeedsAWorker()
+    {
+        try {
+            new Batch(new Request(), 0);
+            fail("made a batch without workers");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    private static String quote(File file)
+    {
+        JsonObject json = new JsonObject();
+        json.addProperty("path", file.getPath());
+        return json.get("path").toString();
+    }
+}
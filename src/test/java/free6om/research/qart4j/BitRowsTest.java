@@ -0,0 +1,138 @@
+package free6om.research.qart4j;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for {@link BitRows}.
+ */
+public class BitRowsTest
+    extends TestCase
+{
+    public BitRowsTest(String testName)
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( BitRowsTest.class );
+    }
+
+    public void testBitsAcrossWords()
+    {
+        BitRows rows = new BitRows(2, 130);
+        assertEquals(3, rows.getWords());
+        int[] bits = {0, 1, 63, 64, 127, 128, 129};
+        for (int bit : bits) {
+            rows.set(1, bit);
+        }
+
+        for (int bit = 0; bit < 130; bit++) {
+            assertFalse(rows.get(0, bit));
+            assertEquals("bit " + bit, contains(bits, bit), rows.get(1, bit));
+        }
+    }
+
+    public void testSetBytesUsesBitsOrder()
+    {
+        byte[] bytes = new byte[11];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) (0x5A + 37*i);
+        }
+        BitRows rows = new BitRows(1, 13*8);
+        rows.set(0, 0);
+        rows.setBytes(0, 2, bytes, 0, bytes.length);
+
+        Bits expected = new Bits(new byte[13], 16);
+        expected.write(bytes, 0, bytes.length);
+        for (int bit = 0; bit < 13*8; bit++) {
+            assertEquals("bit " + bit, bit == 0 || bit >= 16 && expected.get(bit), rows.get(0, bit));
+        }
+    }
+
+    public void testPackAndUnpack()
+    {
+        byte[] bytes = new byte[19];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) (i*29 + 3);
+        }
+        long[] packed = new long[BitRows.wordsFor(bytes.length*8)];
+        packed[packed.length - 1] = -1L;
+        BitRows.pack(bytes, 0, bytes.length, packed);
+        for (int bit = 0; bit < bytes.length*8; bit++) {
+            assertEquals((bytes[bit/8] & (0x80 >>> bit%8)) != 0, BitRows.get(packed, bit));
+        }
+        assertFalse(BitRows.get(packed, bytes.length*8));
+
+        byte[] unpacked = new byte[bytes.length + 2];
+        BitRows.unpack(packed, unpacked, 2, bytes.length);
+        for (int i = 0; i < bytes.length; i++) {
+            assertEquals(bytes[i], unpacked[i + 2]);
+        }
+    }
+
+    public void testSwapAndXor()
+    {
+        BitRows rows = new BitRows(3, 70);
+        rows.set(0, 3);
+        rows.set(0, 69);
+        rows.set(1, 3);
+        rows.set(1, 64);
+
+        rows.swap(0, 2);
+        assertTrue(rows.get(2, 69));
+        assertFalse(rows.get(0, 69));
+
+        rows.xor(1, 2);
+        assertFalse(rows.get(1, 3));
+        assertTrue(rows.get(1, 64));
+        assertTrue(rows.get(1, 69));
+
+        long[] target = new long[rows.getWords()];
+        rows.xorInto(target, 1);
+        rows.xorInto(target, 2);
+        assertTrue(BitRows.get(target, 3));
+        assertTrue(BitRows.get(target, 64));
+        assertFalse(BitRows.get(target, 69));
+    }
+
+    public void testCopiesAreIndependent()
+    {
+        BitRows rows = new BitRows(2, 8);
+        rows.set(0, 1);
+        rows.swap(0, 1);
+
+        BitRows copy = new BitRows(rows);
+        copy.set(0, 7);
+        assertTrue(copy.get(1, 1));
+        assertFalse(rows.get(0, 7));
+
+        BitRows target = new BitRows(2, 8);
+        target.copyFrom(copy);
+        assertTrue(target.get(0, 7));
+        assertTrue(target.get(1, 1));
+
+        target.clear();
+        assertFalse(target.get(1, 1));
+        assertTrue(copy.get(1, 1));
+
+        try {
+            target.copyFrom(new BitRows(2, 9));
+            fail("copied a matrix of another shape");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    private static boolean contains(int[] values, int value)
+    {
+        for (int v : values) {
+            if (v == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
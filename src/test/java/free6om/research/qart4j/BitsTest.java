@@ -0,0 +1,169 @@
+package free6om.research.qart4j;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Unit test for {@link Bits}, against a plain array of booleans, with writes of every width
+ * landing on every position of the 64 bit accumulator.
+ */
+public class BitsTest
+    extends TestCase
+{
+    public BitsTest(String testName)
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( BitsTest.class );
+    }
+
+    public void testWritesAcrossTheAccumulator()
+    {
+        for (int start = 0; start < 64; start++) {
+            for (int numBits = 0; numBits <= 32; numBits++) {
+                Bits bits = new Bits();
+                Expected expected = new Expected();
+                write(bits, expected, 0x2AAAAAAAAL, start);
+                write(bits, expected, 0x9E3779B9L, numBits);
+                write(bits, expected, 0x5, 3);
+                assertBits(expected, bits, "start " + start + ", " + numBits + " bits");
+            }
+        }
+    }
+
+    public void testRandomMix() throws QArtException
+    {
+        Random random = new Random(7);
+        for (int n = 0; n < 200; n++) {
+            Bits bits = n % 2 == 0 ? new Bits() : new Bits(new Version(10));
+            Expected expected = new Expected();
+            for (int i = 0; i < 60; i++) {
+                switch (random.nextInt(4)) {
+                    case 0:
+                        write(bits, expected, random.nextInt(), random.nextInt(33));
+                        break;
+                    case 1:
+                        boolean bit = random.nextBoolean();
+                        bits.append(bit);
+                        expected.add(bit ? 1 : 0, 1);
+                        break;
+                    case 2:
+                        byte[] data = new byte[random.nextInt(12)];
+                        random.nextBytes(data);
+                        int offset = data.length == 0 ? 0 : random.nextInt(data.length);
+                        bits.write(data, offset, data.length - offset);
+                        for (int j = offset; j < data.length; j++) {
+                            expected.add(data[j], 8);
+                        }
+                        break;
+                    default:
+                        Bits other = new Bits();
+                        int count = random.nextInt(150);
+                        for (int j = 0; j < count; j++) {
+                            boolean value = random.nextInt(3) == 0;
+                            other.append(value);
+                            expected.add(value ? 1 : 0, 1);
+                        }
+                        bits.append(other);
+                        break;
+                }
+                assertEquals(expected.size, bits.getSize());
+            }
+            assertBits(expected, bits, "mix " + n);
+
+            write(bits, expected, 0, (8 - expected.size % 8) % 8);
+            byte[] bytes = bits.getBits();
+            assertEquals(expected.size / 8, bytes.length);
+            for (int i = 0; i < expected.size; i++) {
+                assertEquals("mix " + n + " bit " + i, expected.bits[i], (bytes[i/8] & (0x80 >>> i%8)) != 0);
+            }
+        }
+    }
+
+    public void testContinuesAfterPartialByte()
+    {
+        byte[] start = new byte[]{(byte) 0xB6, (byte) 0xA0};
+        Bits bits = new Bits(start, 11);
+        Expected expected = new Expected();
+        expected.add(0xB6, 8);
+        expected.add(0x5, 3);
+        write(bits, expected, 0x123456, 24);
+        bits.append(true);
+        expected.add(1, 1);
+        assertBits(expected, bits, "after 11 bits");
+    }
+
+    public void testPad() throws QArtException
+    {
+        Bits bits = new Bits();
+        bits.write(0x7, 3);
+        bits.pad(37);
+        assertEquals(40, bits.getSize());
+        byte[] bytes = bits.getBits();
+        // a 4 bit terminator, zeros up to the byte boundary, then alternating pad bytes
+        assertEquals((byte) 0xE0, bytes[0]);
+        assertEquals((byte) 0xEC, bytes[1]);
+        assertEquals((byte) 0x11, bytes[2]);
+        assertEquals((byte) 0xEC, bytes[3]);
+        assertEquals((byte) 0x11, bytes[4]);
+    }
+
+    public void testBadWidths()
+    {
+        try {
+            new Bits().write(0, 33);
+            fail("wrote 33 bits of an int");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            new Bits().pad(-1);
+            fail("padded by a negative size");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    private static void write(Bits bits, Expected expected, long value, int numBits)
+    {
+        // the writer takes at most 32 bits at a time
+        while (numBits > 32) {
+            bits.write((int) (value >>> (numBits - 32)), 32);
+            expected.add(value >>> (numBits - 32), 32);
+            numBits -= 32;
+        }
+        bits.write((int) value, numBits);
+        expected.add(value, numBits);
+    }
+
+    private static void assertBits(Expected expected, Bits bits, String message)
+    {
+        assertEquals(message, expected.size, bits.getSize());
+        for (int i = 0; i < expected.size; i++) {
+            assertEquals(message + " bit " + i, expected.bits[i], bits.get(i));
+        }
+    }
+
+    private static final class Expected
+    {
+        private boolean[] bits = new boolean[64];
+        private int size;
+
+        private void add(long value, int numBits)
+        {
+            for (int i = numBits - 1; i >= 0; i--) {
+                if (size == bits.length) {
+                    bits = Arrays.copyOf(bits, size * 2);
+                }
+                bits[size++] = (value >>> i & 1) != 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package free6om.research.qart4j;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * Attempts of {@link Image#encode()} after the first must not allocate: an encode that has to
+ * start over several times allocates no more than one that gets it right the first time.
+ */
+public class ImageAllocationTest
+    extends TestCase
+{
+    private static final int VERSION = 6;
+    // what a retrying encode may allocate beyond a single attempt, the debug line it logs
+    private static final long SLACK = 2048;
+
+    public ImageAllocationTest(String testName)
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( ImageAllocationTest.class );
+    }
+
+    public void testRetriesDoNotAllocate() throws QArtException
+    {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        if (!(threads instanceof com.sun.management.ThreadMXBean)
+                || !((com.sun.management.ThreadMXBean) threads).isThreadAllocatedMemorySupported()) {
+            fail("this JVM can't count the bytes a thread allocates");
+        }
+        com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+        allocations.setThreadAllocatedMemoryEnabled(true);
+
+        // white wants every data bit 0 and is done at once, dithering black sets digit groups
+        // above 999 and has to start over
+        Image once = image(255);
+        Image retrying = image(0);
+
+        long single = Long.MAX_VALUE;
+        long retried = Long.MAX_VALUE;
+        for (int i = 0; i < 50; i++) {
+            single = Math.min(single, allocated(allocations, once));
+            retried = Math.min(retried, allocated(allocations, retrying));
+        }
+        assertEquals(1, once.getLastAttempts());
+        assertTrue("retrying encode took " + retrying.getLastAttempts() + " attempts",
+                retrying.getLastAttempts() > 1);
+
+        assertTrue("retrying encode allocated " + retried + " bytes, a single attempt " + single,
+                retried <= single + SLACK);
+    }
+
+    private static Image image(int luma)
+    {
+        int size = 17 + 4*VERSION;
+        int[][] target = new int[size][size];
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                target[y][x] = luma;
+            }
+        }
+        Image image = new Image(target, 0, 0, "http://example.com/", VERSION, 0, 0,
+                false, 1, true, false, false);
+        // blocks solved on other threads would not be counted
+        image.setPool(null);
+
+        return image;
+    }
+
+    private static long allocated(com.sun.management.ThreadMXBean allocations, Image image) throws QArtException
+    {
+        long thread = Thread.currentThread().getId();
+        long before = allocations.getThreadAllocatedBytes(thread);
+        image.encode();
+
+        return allocations.getThreadAllocatedBytes(thread) - before;
+    }
+}
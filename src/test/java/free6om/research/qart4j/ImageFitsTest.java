@@ -0,0 +1,108 @@
+package free6om.research.qart4j;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for {@link Image#fits(String, int)}: for every version it must be true exactly for
+ * the URLs whose head, the URL with its separator and an empty number, a plan can encode.
+ */
+public class ImageFitsTest
+    extends TestCase
+{
+    private static final String PREFIX = "http://example.com/";
+    // URL lengths tried on each side of a version's capacity
+    private static final int EDGE = 8;
+
+    public ImageFitsTest(String testName)
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( ImageFitsTest.class );
+    }
+
+    public void testFitsExactlyWhenAPlanEncodes() throws QArtException
+    {
+        for (int version = Version.MIN_VERSION; version <= Version.MAX_VERSION; version++) {
+            Plan plan = PlanCache.getPlan(new Version(version), Level.L, new Mask(0), 0);
+            int capacity = capacity(version);
+            assertTrue("version " + version, Image.fits(url(capacity), version));
+            assertFalse("version " + version, Image.fits(url(capacity + 1), version));
+
+            for (int length = 0; length <= capacity + EDGE; length++) {
+                if (length < capacity - EDGE && length % 97 != 0) {
+                    continue;
+                }
+                String url = url(length);
+                assertEquals("version " + version + ", " + length + " characters",
+                        encodes(plan, url), Image.fits(url, version));
+            }
+        }
+    }
+
+    /**
+     * Image.encode right at the edge: the longest URL that fits encodes, one more character fails.
+     */
+    public void testImageEncodesAtTheEdge() throws QArtException
+    {
+        for (int version : new int[]{1, 2, 9, 10, 26, 27, 40}) {
+            int capacity = capacity(version);
+            assertNotNull(image(url(capacity), version).encode());
+            try {
+                image(url(capacity + 1), version).encode();
+                fail("version " + version + " encoded " + (capacity + 1) + " characters");
+            } catch (QArtException e) {
+                // expected
+            }
+        }
+    }
+
+    public void testVersionsOutOfRange()
+    {
+        assertFalse(Image.fits(PREFIX, Version.MIN_VERSION - 1));
+        assertFalse(Image.fits(PREFIX, Version.MAX_VERSION + 1));
+    }
+
+    // the length of the longest URL that fits version
+    private static int capacity(int version)
+    {
+        int length = 0;
+        while (Image.fits(url(length + 1), version)) {
+            length++;
+        }
+        return length;
+    }
+
+    private static boolean encodes(Plan plan, String url)
+    {
+        try {
+            Plan.encode(plan, new Raw(url + "#"), new Number(""));
+            return true;
+        } catch (QArtException e) {
+            return false;
+        }
+    }
+
+    private static Image image(String url, int version)
+    {
+        int size = 17 + 4*version;
+        int[][] target = new int[size][size];
+        Image image = new Image(target, 0, 0, url, version, 0, 0, false, 1, false, false, false);
+        image.setPool(null);
+        return image;
+    }
+
+    // PREFIX padded to length characters, PREFIX cut short below its own length
+    private static String url(int length)
+    {
+        StringBuilder url = new StringBuilder(PREFIX.substring(0, Math.min(length, PREFIX.length())));
+        while (url.length() < length) {
+            url.append((char) ('a' + url.length() % 26));
+        }
+        return url.toString();
+    }
+}
@@ -0,0 +1,72 @@
+package free6om.research.qart4j;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * With a fixed seed, {@link Image#encode()} gives the same code whichever pool, if any, solves
+ * its blocks: every block draws from its own generator, split off in block order.
+ */
+public class ImagePoolTest
+    extends TestCase
+{
+    // 6 blocks at level L
+    private static final int VERSION = 15;
+
+    public ImagePoolTest(String testName)
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( ImagePoolTest.class );
+    }
+
+    public void testSameCodeOnEveryPool() throws QArtException
+    {
+        ForkJoinPool one = new ForkJoinPool(1);
+        ForkJoinPool four = new ForkJoinPool(4);
+        try {
+            for (boolean dither : new boolean[]{false, true}) {
+                QRCode expected = image(dither, null).encode();
+                for (ForkJoinPool pool : new ForkJoinPool[]{one, four, ForkJoinPool.commonPool()}) {
+                    assertSameCode("dither " + dither + ", " + pool, expected, image(dither, pool).encode());
+                }
+            }
+        } finally {
+            one.shutdown();
+            four.shutdown();
+        }
+    }
+
+    private static Image image(boolean dither, ForkJoinPool pool)
+    {
+        int size = 17 + 4*VERSION;
+        int[][] target = new int[size][size];
+        Random random = new Random(11);
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                target[y][x] = (x*255/size + random.nextInt(64)) & 0xFF;
+            }
+        }
+        Image image = new Image(target, 0, 0, "http://example.com/", VERSION, 2, 0,
+                true, 42, dither, false, false);
+        image.setPool(pool);
+        return image;
+    }
+
+    private static void assertSameCode(String message, QRCode expected, QRCode actual)
+    {
+        assertEquals(message, expected.getSize(), actual.getSize());
+        for (int y = 0; y < expected.getSize(); y++) {
+            for (int x = 0; x < expected.getSize(); x++) {
+                assertEquals(message + " (" + x + ", " + y + ")", expected.isBlack(x, y), actual.isBlack(x, y));
+            }
+        }
+    }
+}
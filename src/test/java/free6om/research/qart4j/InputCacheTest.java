@@ -0,0 +1,146 @@
+package free6om.research.qart4j;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Unit test for {@link InputCache}.
+ */
+public class InputCacheTest
+    extends TestCase
+{
+    public InputCacheTest(String testName)
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( InputCacheTest.class );
+    }
+
+    @Override
+    protected void setUp()
+    {
+        InputCache.clear();
+    }
+
+    @Override
+    protected void tearDown()
+    {
+        InputCache.setMaximumInputBytes(InputCache.DEFAULT_MAXIMUM_INPUT_BYTES);
+        InputCache.setMaximumTargetBytes(InputCache.DEFAULT_MAXIMUM_TARGET_BYTES);
+        InputCache.clear();
+    }
+
+    public void testInputsByContentAndSize() throws Exception
+    {
+        byte[] png = png(0x80);
+        long hits = InputCache.getInputHits();
+        long misses = InputCache.getInputMisses();
+
+        BufferedImage image = InputCache.load(png, 30, 30);
+        assertSame(image, InputCache.load(png.clone(), 30, 30));
+        assertNotSame(image, InputCache.load(png, 20, 20));
+        assertNotSame(image, InputCache.load(png(0x40), 30, 30));
+        assertEquals(hits + 1, InputCache.getInputHits());
+        assertEquals(misses + 3, InputCache.getInputMisses());
+        assertEquals(InputCache.hash(png), InputCache.hashOf(image));
+    }
+
+    public void testTargetsByArea() throws Exception
+    {
+        BufferedImage image = InputCache.load(png(0x80), 40, 40);
+        long hits = InputCache.getTargetHits();
+
+        LumaPlane target = InputCache.target(image, 2, 2, 33, 33, 1);
+        assertSame(target, InputCache.target(image, 2, 2, 33, 33, 1));
+        assertNotSame(target, InputCache.target(image, 0, 0, 33, 33, 1));
+        assertEquals(hits + 1, InputCache.getTargetHits());
+
+        // images that didn't come through the cache aren't cached
+        BufferedImage other = new BufferedImage(40, 40, BufferedImage.TYPE_INT_RGB);
+        assertNotSame(InputCache.target(other, 0, 0, 33, 33, 1), InputCache.target(other, 0, 0, 33, 33, 1));
+    }
+
+    public void testConcurrentLoadsDecodeOnce() throws Exception
+    {
+        final byte[] png = png(0x60);
+        final CountDownLatch start = new CountDownLatch(1);
+        final BufferedImage[] images = new BufferedImage[8];
+        final Exception[] failures = new Exception[images.length];
+        Thread[] threads = new Thread[images.length];
+        long decodes = InputCache.getInputDecodes();
+        for (int i = 0; i < threads.length; i++) {
+            final int n = i;
+            threads[i] = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        images[n] = InputCache.load(png, 600, 600);
+                    } catch (Exception e) {
+                        failures[n] = e;
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        start.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(decodes + 1, InputCache.getInputDecodes());
+        for (int i = 0; i < images.length; i++) {
+            assertNull(failures[i]);
+            assertSame(images[0], images[i]);
+        }
+    }
+
+    public void testFailedDecodesAreNotKept() throws Exception
+    {
+        byte[] garbage = new byte[]{1, 2, 3, 4};
+        long decodes = InputCache.getInputDecodes();
+        for (int i = 0; i < 2; i++) {
+            try {
+                InputCache.load(garbage, 30, 30);
+                fail("decoded 4 bytes of garbage");
+            } catch (Exception e) {
+                // expected
+            }
+        }
+        assertEquals(decodes + 2, InputCache.getInputDecodes());
+    }
+
+    public void testEvictsByBytes() throws Exception
+    {
+        byte[] first = png(0x10);
+        byte[] second = png(0x20);
+        // room for one 30x30 image of 4 bytes a pixel
+        InputCache.setMaximumInputBytes(30*30*4);
+        BufferedImage image = InputCache.load(first, 30, 30);
+        InputCache.load(second, 30, 30);
+
+        assertNotSame(image, InputCache.load(first, 30, 30));
+    }
+
+    private static byte[] png(int blue) throws Exception
+    {
+        BufferedImage image = new BufferedImage(40, 40, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < 40; y++) {
+            for (int x = 0; x < 40; x++) {
+                image.setRGB(x, y, (x*6) << 16 | (y*6) << 8 | blue);
+            }
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ImageIO.write(image, "PNG", bytes);
+        return bytes.toByteArray();
+    }
+}
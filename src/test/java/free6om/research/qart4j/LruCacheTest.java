@@ -0,0 +1,128 @@
+package free6om.research.qart4j;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for {@link LruCache}.
+ */
+public class LruCacheTest
+    extends TestCase
+{
+    private static final LruCache.Weigher<String> LENGTH = new LruCache.Weigher<String>() {
+        @Override
+        public long weigh(String value) {
+            return value.length();
+        }
+    };
+
+    public LruCacheTest(String testName)
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( LruCacheTest.class );
+    }
+
+    public void testEvictsLeastRecentlyUsed()
+    {
+        LruCache<Integer, String> cache = new LruCache<Integer, String>(3);
+        cache.putIfAbsent(1, "a");
+        cache.putIfAbsent(2, "b");
+        cache.putIfAbsent(3, "c");
+        // a get counts as a use, 2 is now the oldest
+        assertEquals("a", cache.get(1));
+        cache.putIfAbsent(4, "d");
+
+        assertEquals(3, cache.size());
+        assertEquals(3, cache.getWeight());
+        assertNull(cache.get(2));
+        assertEquals("a", cache.get(1));
+        assertEquals("c", cache.get(3));
+        assertEquals("d", cache.get(4));
+    }
+
+    public void testPutIfAbsentKeepsTheFirstValue()
+    {
+        LruCache<Integer, String> cache = new LruCache<Integer, String>(10, LENGTH);
+        assertEquals("first", cache.putIfAbsent(1, "first"));
+        assertEquals("first", cache.putIfAbsent(1, "second"));
+        assertEquals(1, cache.size());
+        assertEquals(5, cache.getWeight());
+    }
+
+    public void testWeights()
+    {
+        LruCache<Integer, String> cache = new LruCache<Integer, String>(10, LENGTH);
+        cache.putIfAbsent(1, "aaaa");
+        cache.putIfAbsent(2, "bbbb");
+        assertEquals(8, cache.getWeight());
+
+        // over the maximum, the oldest goes until it fits again
+        cache.putIfAbsent(3, "ccc");
+        assertEquals(7, cache.getWeight());
+        assertNull(cache.get(1));
+
+        cache.clear();
+        cache.putIfAbsent(5, "eeee");
+        cache.putIfAbsent(6, "ff");
+        cache.setMaximumWeight(3);
+        assertEquals(2, cache.getWeight());
+        assertEquals("ff", cache.get(6));
+
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertEquals(0, cache.getWeight());
+    }
+
+    public void testValueHeavierThanTheMaximumIsNotKept()
+    {
+        LruCache<Integer, String> cache = new LruCache<Integer, String>(100, LENGTH);
+        for (int i = 0; i < 9; i++) {
+            cache.putIfAbsent(i, "0123456789");
+        }
+        assertEquals(90, cache.getWeight());
+
+        String heavy = new String(new char[101]);
+        assertSame(heavy, cache.putIfAbsent(9, heavy));
+        assertNull(cache.get(9));
+        assertEquals(9, cache.size());
+        assertEquals(90, cache.getWeight());
+        for (int i = 0; i < 9; i++) {
+            assertNotNull(cache.get(i));
+        }
+    }
+
+    public void testHitsAndMisses()
+    {
+        LruCache<Integer, String> cache = new LruCache<Integer, String>(2);
+        cache.get(1);
+        cache.putIfAbsent(1, "a");
+        cache.get(1);
+        cache.get(1);
+        cache.get(2);
+        assertEquals(2, cache.getHits());
+        assertEquals(2, cache.getMisses());
+    }
+
+    public void testMaximumMustBePositive()
+    {
+        try {
+            new LruCache<Integer, String>(0);
+            fail("made a cache that holds nothing");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        LruCache<Integer, String> cache = new LruCache<Integer, String>(1);
+        try {
+            cache.setMaximumWeight(-1);
+            fail("set a negative maximum");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        assertEquals(1, cache.getMaximumSize());
+    }
+}
@@ -0,0 +1,152 @@
+package free6om.research.qart4j;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.IndexColorModel;
+import java.util.Random;
+
+/**
+ * Unit test for {@link ImageUtil#makeLuma}: whichever raster path reads an image, the plane must
+ * match luma worked out pixel by pixel from {@link BufferedImage#getRGB(int, int)}.
+ */
+public class LumaTest
+    extends TestCase
+{
+    private static final int[] TYPES = {
+            BufferedImage.TYPE_INT_ARGB,
+            BufferedImage.TYPE_INT_RGB,
+            BufferedImage.TYPE_3BYTE_BGR,
+            BufferedImage.TYPE_4BYTE_ABGR,
+            BufferedImage.TYPE_BYTE_GRAY,
+            BufferedImage.TYPE_BYTE_INDEXED,
+    };
+
+    public LumaTest(String testName)
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( LumaTest.class );
+    }
+
+    public void testEveryTypeMatchesGetRGB()
+    {
+        for (int type : TYPES) {
+            BufferedImage image = fill(new BufferedImage(70, 50, type), 1);
+            assertLuma("type " + type, image, 0, 0, 70, 50, 1);
+            assertLuma("type " + type + " area", image, 5, 3, 61, 40, 1);
+        }
+    }
+
+    public void testIndexedWithTransparentEntries()
+    {
+        byte[] levels = new byte[16];
+        byte[] alphas = new byte[16];
+        for (int i = 0; i < 16; i++) {
+            levels[i] = (byte) (i * 17);
+            alphas[i] = (byte) (i % 4 == 0 ? 0 : 0xFF);
+        }
+        IndexColorModel colorModel = new IndexColorModel(4, 16, levels, levels, levels, alphas);
+        BufferedImage image = new BufferedImage(40, 30, BufferedImage.TYPE_BYTE_INDEXED, colorModel);
+        Random random = new Random(3);
+        for (int y = 0; y < 30; y++) {
+            for (int x = 0; x < 40; x++) {
+                image.getRaster().setSample(x, y, 0, random.nextInt(16));
+            }
+        }
+        for (int scale = 1; scale <= 3; scale++) {
+            assertLuma("scale " + scale, image, 0, 0, 40, 30, scale);
+        }
+    }
+
+    public void testSubimage()
+    {
+        for (int type : TYPES) {
+            BufferedImage image = fill(new BufferedImage(90, 80, type), 2);
+            BufferedImage view = image.getSubimage(13, 21, 50, 40);
+            assertLuma("type " + type, view, 0, 0, 50, 40, 1);
+            assertLuma("type " + type + " area", view, 4, 6, 43, 31, 3);
+        }
+    }
+
+    public void testAreaAverage()
+    {
+        for (int type : TYPES) {
+            BufferedImage image = fill(new BufferedImage(67, 53, type), 3);
+            for (int scale = 2; scale <= 5; scale++) {
+                assertLuma("type " + type + ", scale " + scale, image, 0, 0, 67, 53, scale);
+                assertLuma("type " + type + ", scale " + scale + " area", image, 7, 2, 58, 49, scale);
+            }
+        }
+    }
+
+    /**
+     * Enough pixels for the rows to be split over the pool.
+     */
+    public void testLargeArea()
+    {
+        for (int type : new int[]{BufferedImage.TYPE_INT_ARGB, BufferedImage.TYPE_3BYTE_BGR}) {
+            BufferedImage image = fill(new BufferedImage(400, 300, type), 4);
+            assertLuma("type " + type, image, 0, 0, 400, 300, 1);
+            assertLuma("type " + type + ", scale 3", image, 1, 1, 399, 299, 3);
+        }
+    }
+
+    // random colors, and on images with alpha some fully transparent and some half transparent pixels
+    private static BufferedImage fill(BufferedImage image, long seed)
+    {
+        Random random = new Random(seed);
+        boolean alpha = image.getColorModel().hasAlpha();
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                int rgb = random.nextInt() & 0xFFFFFF;
+                int a = 0xFF;
+                if (alpha) {
+                    int pick = random.nextInt(5);
+                    a = pick == 0 ? 0 : pick == 1 ? 0x80 : 0xFF;
+                }
+                image.setRGB(x, y, a << 24 | rgb);
+            }
+        }
+        return image;
+    }
+
+    private static void assertLuma(String message, BufferedImage image, int x, int y, int width, int height, int scale)
+    {
+        LumaPlane plane = ImageUtil.makeLuma(image, x, y, width, height, scale);
+        assertEquals(message, width / scale, plane.getWidth());
+        assertEquals(message, height / scale, plane.getHeight());
+        boolean alpha = image.getColorModel().hasAlpha();
+        for (int i = 0; i < plane.getHeight(); i++) {
+            for (int j = 0; j < plane.getWidth(); j++) {
+                int sum = 0;
+                int count = 0;
+                for (int k = 0; k < scale; k++) {
+                    for (int l = 0; l < scale; l++) {
+                        int argb = image.getRGB(x + j*scale + l, y + i*scale + k);
+                        if (alpha && argb >>> 24 == 0) {
+                            continue;
+                        }
+                        sum += luma(argb);
+                        count++;
+                    }
+                }
+                int expected = count == 0 ? -1 : (sum + count/2) / count;
+                assertEquals(message + " (" + j + ", " + i + ")", expected, plane.get(j, i));
+            }
+        }
+    }
+
+    private static int luma(int argb)
+    {
+        int r = (argb >> 16) & 0xFF;
+        int g = (argb >> 8) & 0xFF;
+        int b = argb & 0xFF;
+        return ((299*r + 587*g + 114*b) + 500) / 1000;
+    }
+}
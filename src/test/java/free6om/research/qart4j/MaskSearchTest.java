@@ -0,0 +1,162 @@
+package free6om.research.qart4j;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Unit test for {@link MaskSearch}: dropping candidates early must not change the pick from
+ * scoring every mask and rotation in full, and neither must the pool the candidates run on.
+ */
+public class MaskSearchTest
+    extends TestCase
+{
+    private static final int VERSION = 4;
+
+    public MaskSearchTest(String testName)
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( MaskSearchTest.class );
+    }
+
+    public void testPicksTheBestOfAllCandidates() throws QArtException
+    {
+        for (long seed = 1; seed <= 4; seed++) {
+            Image image = image(target(seed), seed % 2 == 0);
+            image.setPool(null);
+            MaskSearch search = new MaskSearch(image);
+            QRCode code = search.search(MaskSearch.AUTO, MaskSearch.AUTO);
+
+            // every candidate in full, in mask then rotation order, the first of equal scores kept
+            int bestMask = -1;
+            int bestRotation = -1;
+            long bestScore = Long.MAX_VALUE;
+            QRCode bestCode = null;
+            for (int mask = 0; mask < 8; mask++) {
+                for (int rotation = 0; rotation < 4; rotation++) {
+                    QRCode candidate = image.encode(mask, rotation, null);
+                    long score = image.score(candidate);
+                    if (score < bestScore) {
+                        bestMask = mask;
+                        bestRotation = rotation;
+                        bestScore = score;
+                        bestCode = candidate;
+                    }
+                }
+            }
+
+            String message = "target " + seed;
+            assertEquals(message, bestMask, search.getMask());
+            assertEquals(message, bestRotation, search.getRotation());
+            assertEquals(message, bestScore, search.getScore());
+            assertEquals(message, bestScore, image.score(code));
+            assertSameCode(message, bestCode, code);
+        }
+    }
+
+    /**
+     * With nothing to aim at every candidate scores 0, the lowest mask and rotation win.
+     */
+    public void testTiesGoToTheLowestMaskThenRotation() throws QArtException
+    {
+        int size = 17 + 4*VERSION;
+        int[][] target = new int[size][size];
+        for (int[] row : target) {
+            Arrays.fill(row, -1);
+        }
+        ForkJoinPool four = new ForkJoinPool(4);
+        try {
+            for (ForkJoinPool pool : new ForkJoinPool[]{null, four}) {
+                Image image = image(target, false);
+                image.setPool(pool);
+
+                MaskSearch search = new MaskSearch(image);
+                search.search(MaskSearch.AUTO, MaskSearch.AUTO);
+                assertEquals(0, search.getScore());
+                assertEquals(0, search.getMask());
+                assertEquals(0, search.getRotation());
+
+                search.search(MaskSearch.AUTO, 2);
+                assertEquals(0, search.getMask());
+                assertEquals(2, search.getRotation());
+
+                search.search(5, MaskSearch.AUTO);
+                assertEquals(5, search.getMask());
+                assertEquals(0, search.getRotation());
+            }
+        } finally {
+            four.shutdown();
+        }
+    }
+
+    public void testSamePickOnEveryPool() throws QArtException
+    {
+        ForkJoinPool one = new ForkJoinPool(1);
+        ForkJoinPool four = new ForkJoinPool(4);
+        try {
+            for (long seed = 1; seed <= 3; seed++) {
+                int[][] target = target(seed);
+                Image image = image(target, true);
+                image.setPool(null);
+                MaskSearch expected = new MaskSearch(image);
+                QRCode expectedCode = expected.search(MaskSearch.AUTO, MaskSearch.AUTO);
+
+                for (ForkJoinPool pool : new ForkJoinPool[]{one, four, ForkJoinPool.commonPool()}) {
+                    String message = "target " + seed + ", " + pool;
+                    image = image(target, true);
+                    image.setPool(pool);
+                    MaskSearch search = new MaskSearch(image);
+                    QRCode code = search.search(MaskSearch.AUTO, MaskSearch.AUTO);
+                    assertEquals(message, expected.getMask(), search.getMask());
+                    assertEquals(message, expected.getRotation(), search.getRotation());
+                    assertEquals(message, expected.getScore(), search.getScore());
+                    assertSameCode(message, expectedCode, code);
+                }
+            }
+        } finally {
+            one.shutdown();
+            four.shutdown();
+        }
+    }
+
+    // a gradient whose direction changes with the seed, with noise on top
+    private static int[][] target(long seed)
+    {
+        int size = 17 + 4*VERSION;
+        int[][] target = new int[size][size];
+        Random random = new Random(seed);
+        int dx = random.nextInt(9) - 4;
+        int dy = random.nextInt(9) - 4;
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                int value = 128 + (dx*(x - size/2) + dy*(y - size/2)) * 4 + random.nextInt(96) - 48;
+                target[y][x] = Math.max(0, Math.min(255, value));
+            }
+        }
+        return target;
+    }
+
+    private static Image image(int[][] target, boolean dither)
+    {
+        return new Image(target, 0, 0, "http://example.com/", VERSION, 0, 0,
+                false, 42, dither, false, false);
+    }
+
+    private static void assertSameCode(String message, QRCode expected, QRCode actual)
+    {
+        assertEquals(message, expected.getSize(), actual.getSize());
+        for (int y = 0; y < expected.getSize(); y++) {
+            for (int x = 0; x < expected.getSize(); x++) {
+                assertEquals(message + " (" + x + ", " + y + ")", expected.isBlack(x, y), actual.isBlack(x, y));
+            }
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package free6om.research.qart4j;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.util.Random;
+
+/**
+ * Unit test for {@link ParityBasisCache}.
+ */
+public class ParityBasisCacheTest
+    extends TestCase
+{
+    public ParityBasisCacheTest(String testName)
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( ParityBasisCacheTest.class );
+    }
+
+    @Override
+    protected void tearDown()
+    {
+        ParityBasisCache.setMaximumSize(ParityBasisCache.DEFAULT_MAXIMUM_SIZE);
+        ParityBasisCache.clear();
+    }
+
+    /**
+     * The sum of the rows of the data bits that are set is the data followed by its check bytes.
+     */
+    public void testRowsSumToCheckBytes()
+    {
+        Random random = new Random(1);
+        int numberOfDataBytes = 13;
+        int numberOfCheckBytes = 22;
+        BitRows basis = ParityBasisCache.copyOf(numberOfDataBytes, numberOfCheckBytes);
+        assertEquals(numberOfDataBytes*8, basis.getNumberOfRows());
+        assertEquals((numberOfDataBytes + numberOfCheckBytes)*8, basis.getNumberOfBits());
+
+        for (int n = 0; n < 10; n++) {
+            byte[] data = new byte[numberOfDataBytes];
+            random.nextBytes(data);
+            long[] sum = new long[basis.getWords()];
+            for (int bit = 0; bit < numberOfDataBytes*8; bit++) {
+                if ((data[bit/8] & (0x80 >>> bit%8)) != 0) {
+                    basis.xorInto(sum, bit);
+                }
+            }
+
+            byte[] block = new byte[numberOfDataBytes + numberOfCheckBytes];
+            BitRows.unpack(sum, block, 0, block.length);
+            byte[] checkBytes = ReedSolomonUtil.generateECBytes(data, 0, numberOfDataBytes, numberOfCheckBytes);
+            for (int i = 0; i < numberOfDataBytes; i++) {
+                assertEquals(data[i], block[i]);
+            }
+            for (int i = 0; i < numberOfCheckBytes; i++) {
+                assertEquals(checkBytes[i], block[numberOfDataBytes + i]);
+            }
+        }
+    }
+
+    public void testCopiesDoNotChangeTheCache()
+    {
+        BitRows copy = ParityBasisCache.copyOf(5, 7);
+        boolean bit = copy.get(0, 39);
+        copy.clear();
+
+        assertEquals(bit, ParityBasisCache.copyOf(5, 7).get(0, 39));
+        assertTrue(ParityBasisCache.copyOf(5, 7).get(0, 0));
+    }
+
+    public void testWarmUpAndEviction()
+    {
+        ParityBasisCache.clear();
+        // version 5 at L is one block of 108 bytes, at Q two blocks of 15 and two of 16
+        ParityBasisCache.warmUp(Level.L, 5);
+        assertEquals(1, ParityBasisCache.size());
+        ParityBasisCache.warmUp(Level.Q, 5);
+        assertEquals(3, ParityBasisCache.size());
+        ParityBasisCache.warmUp(Level.Q, 5);
+        assertEquals(3, ParityBasisCache.size());
+
+        ParityBasisCache.setMaximumSize(2);
+        assertEquals(2, ParityBasisCache.size());
+        ParityBasisCache.copyOf(9, 10);
+        assertEquals(2, ParityBasisCache.size());
+    }
+}
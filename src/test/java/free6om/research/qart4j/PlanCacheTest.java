@@ -0,0 +1,88 @@
+package free6om.research.qart4j;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+/**
+ * Unit test for {@link PlanCache}.
+ */
+public class PlanCacheTest
+    extends TestCase
+{
+    public PlanCacheTest(String testName)
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( PlanCacheTest.class );
+    }
+
+    @Override
+    protected void tearDown()
+    {
+        PlanCache.setMaximumSize(PlanCache.DEFAULT_MAXIMUM_SIZE);
+        PlanCache.clear();
+    }
+
+    /**
+     * A default auto version search with auto mask and rotation finds all of its plans cached
+     * the second time round.
+     */
+    public void testHoldsAnAutoSearch() throws QArtException
+    {
+        PlanCache.clear();
+        int[] versions = VersionSearch.candidates("http://example.com/", VersionSearch.DEFAULT_CANDIDATES);
+        assertEquals(VersionSearch.DEFAULT_CANDIDATES, versions.length);
+        Plan[] plans = plans(versions);
+        assertEquals(plans.length, PlanCache.size());
+
+        Plan[] again = plans(versions);
+        for (int i = 0; i < plans.length; i++) {
+            assertSame(plans[i], again[i]);
+        }
+    }
+
+    public void testEviction() throws QArtException
+    {
+        PlanCache.clear();
+        PlanCache.setMaximumSize(2);
+        Plan first = PlanCache.getPlan(new Version(1), Level.L, new Mask(0), 0);
+        PlanCache.getPlan(new Version(1), Level.L, new Mask(1), 0);
+        PlanCache.getPlan(new Version(1), Level.L, new Mask(2), 0);
+        assertEquals(2, PlanCache.size());
+        assertNotSame(first, PlanCache.getPlan(new Version(1), Level.L, new Mask(0), 0));
+    }
+
+    public void testBadMaskOrRotation()
+    {
+        try {
+            PlanCache.getPlan(new Version(1), Level.L, new Mask(8), 0);
+            fail("made a plan with mask 8");
+        } catch (QArtException e) {
+            // expected
+        }
+        try {
+            PlanCache.getPlan(new Version(1), Level.L, new Mask(0), 4);
+            fail("made a plan with rotation 4");
+        } catch (QArtException e) {
+            // expected
+        }
+    }
+
+    private static Plan[] plans(int[] versions) throws QArtException
+    {
+        Plan[] plans = new Plan[versions.length * 32];
+        int n = 0;
+        for (int version : versions) {
+            for (int mask = 0; mask < 8; mask++) {
+                for (int rotation = 0; rotation < 4; rotation++) {
+                    plans[n++] = PlanCache.getPlan(new Version(version), Level.L, new Mask(mask), rotation);
+                }
+            }
+        }
+        return plans;
+    }
+}
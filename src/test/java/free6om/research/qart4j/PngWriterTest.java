@@ -0,0 +1,106 @@
+package free6om.research.qart4j;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+/**
+ * Unit test for {@link PngWriter}: the PNGs it writes are decoded and compared with
+ * {@link ImageUtil#makeImage(QRCode, int, int, MatrixToImageConfig)}.
+ */
+public class PngWriterTest
+    extends TestCase
+{
+    public PngWriterTest(String testName)
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( PngWriterTest.class );
+    }
+
+    public void testSameAsMakeImage() throws Exception
+    {
+        QRCode code = code();
+        MatrixToImageConfig config = new MatrixToImageConfig(0xFF102030, 0xFFF0E0D0);
+        // exact multiples of the module count and sizes with padding around the code
+        for (int size : new int[]{33, 66, 100, 257}) {
+            BufferedImage expected = ImageUtil.makeImage(code, 2, size, config);
+            BufferedImage actual = read(code, 2, size, config, 0, 0, size, size);
+            assertSame(expected, actual, 0, 0, "size " + size);
+        }
+    }
+
+    public void testTransparentColors() throws Exception
+    {
+        QRCode code = code();
+        MatrixToImageConfig config = new MatrixToImageConfig(0x80FF0000, 0x00000000);
+        BufferedImage expected = ImageUtil.makeImage(code, 1, 120, config);
+        BufferedImage actual = read(code, 1, 120, config, 0, 0, 120, 120);
+        assertSame(expected, actual, 0, 0, "transparent");
+    }
+
+    public void testCanvas() throws Exception
+    {
+        QRCode code = code();
+        MatrixToImageConfig config = new MatrixToImageConfig();
+        BufferedImage expected = ImageUtil.makeImage(code, 2, 90, config);
+        BufferedImage actual = read(code, 2, 90, config, 13, 7, 130, 101);
+        assertEquals(130, actual.getWidth());
+        assertEquals(101, actual.getHeight());
+        assertSame(expected, actual, 13, 7, "canvas");
+
+        for (int y = 0; y < actual.getHeight(); y++) {
+            for (int x = 0; x < actual.getWidth(); x++) {
+                if (x < 13 || x >= 13 + 90 || y < 7 || y >= 7 + 90) {
+                    assertEquals("(" + x + ", " + y + ")", 0, actual.getRGB(x, y) >>> 24);
+                }
+            }
+        }
+    }
+
+    public void testCodeOutsideOfCanvas() throws IOException
+    {
+        try {
+            PngWriter.write(code(), 2, 90, new MatrixToImageConfig(), 50, 0, 130, 101, new ByteArrayOutputStream());
+            fail("wrote a code that does not fit the canvas");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    private static QRCode code()
+    {
+        try {
+            return Plan.encode(Plan.newPlan(new Version(4), Level.M, new Mask(5)), new Raw("http://example.com/"));
+        } catch (QArtException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static BufferedImage read(QRCode code, int quietZone, int size, MatrixToImageConfig config,
+                                      int x, int y, int width, int height) throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        PngWriter.write(code, quietZone, size, config, x, y, width, height, bytes);
+        return ImageIO.read(new ByteArrayInputStream(bytes.toByteArray()));
+    }
+
+    private static void assertSame(BufferedImage expected, BufferedImage actual, int dx, int dy, String message)
+    {
+        for (int y = 0; y < expected.getHeight(); y++) {
+            for (int x = 0; x < expected.getWidth(); x++) {
+                assertEquals(message + " (" + x + ", " + y + ")",
+                        Integer.toHexString(expected.getRGB(x, y)), Integer.toHexString(actual.getRGB(x + dx, y + dy)));
+            }
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package free6om.research.qart4j;
+
+import com.google.zxing.common.reedsolomon.GenericGF;
+import com.google.zxing.common.reedsolomon.ReedSolomonEncoder;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.util.Random;
+
+/**
+ * Unit test for {@link ReedSolomonUtil}, against zxing's {@link ReedSolomonEncoder}.
+ */
+public class ReedSolomonUtilTest
+    extends TestCase
+{
+    private static final ReedSolomonEncoder ENCODER = new ReedSolomonEncoder(GenericGF.QR_CODE_FIELD_256);
+
+    public ReedSolomonUtilTest(String testName)
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( ReedSolomonUtilTest.class );
+    }
+
+    /**
+     * Every (data bytes, check bytes) block shape of every version and level.
+     */
+    public void testEveryBlockShape()
+    {
+        Random random = new Random(3);
+        for (int version = Version.MIN_VERSION; version <= Version.MAX_VERSION; version++) {
+            for (Level level : Level.values()) {
+                Version.VersionLevelInfo levelInfo = Version.VERSION_INFOS[version].levelInfos[level.ordinal()];
+                int numberOfDataBytes = new Version(version).dataBytes(level);
+                int numberOfDataBytesPerBlock = numberOfDataBytes / levelInfo.numberOfBlocks;
+                int numberOfCheckBytes = levelInfo.numberOfCheckBytesPerBlock;
+
+                byte[] data = new byte[numberOfDataBytesPerBlock + 1];
+                random.nextBytes(data);
+                assertCheckBytes(data, numberOfDataBytesPerBlock, numberOfCheckBytes);
+                if (numberOfDataBytes % levelInfo.numberOfBlocks != 0) {
+                    assertCheckBytes(data, numberOfDataBytesPerBlock + 1, numberOfCheckBytes);
+                }
+            }
+        }
+    }
+
+    public void testOffsetsAndEdgeValues()
+    {
+        byte[] data = new byte[40];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (i % 3 == 0 ? 0 : 0xFF);
+        }
+        // the check bytes go after leftovers of an earlier call, which must not leak in
+        byte[] ecBytes = new byte[50];
+        for (int i = 0; i < ecBytes.length; i++) {
+            ecBytes[i] = (byte) 0xA5;
+        }
+        ReedSolomonUtil.generateECBytes(data, 5, 30, ecBytes, 11, ReedSolomonUtil.MAX_CHECK_BYTES);
+
+        int[] expected = expected(data, 5, 30, ReedSolomonUtil.MAX_CHECK_BYTES);
+        for (int i = 0; i < ReedSolomonUtil.MAX_CHECK_BYTES; i++) {
+            assertEquals(expected[i], ecBytes[11 + i] & 0xFF);
+        }
+        assertEquals((byte) 0xA5, ecBytes[10]);
+        assertEquals((byte) 0xA5, ecBytes[11 + ReedSolomonUtil.MAX_CHECK_BYTES]);
+    }
+
+    /**
+     * All blocks of every version and level at once, laid out the way {@link Bits} splits them.
+     */
+    public void testEveryCodeInBlocks()
+    {
+        Random random = new Random(4);
+        for (int version = Version.MIN_VERSION; version <= Version.MAX_VERSION; version++) {
+            for (Level level : Level.values()) {
+                Version.VersionLevelInfo levelInfo = Version.VERSION_INFOS[version].levelInfos[level.ordinal()];
+                int numberOfBlocks = levelInfo.numberOfBlocks;
+                int numberOfCheckBytes = levelInfo.numberOfCheckBytesPerBlock;
+                int numberOfDataBytes = new Version(version).dataBytes(level);
+                int numberOfDataBytesPerBlock = numberOfDataBytes / numberOfBlocks;
+                int numberOfExtraBytes = numberOfDataBytes % numberOfBlocks;
+
+                byte[] code = new byte[Version.VERSION_INFOS[version].bytes];
+                random.nextBytes(code);
+                ReedSolomonUtil.generateBlockECBytes(code, 0, numberOfBlocks, numberOfDataBytesPerBlock,
+                        numberOfExtraBytes, code, numberOfDataBytes, numberOfCheckBytes);
+
+                int position = 0;
+                for (int block = 0; block < numberOfBlocks; block++) {
+                    int length = numberOfDataBytesPerBlock + (block < numberOfBlocks - numberOfExtraBytes ? 0 : 1);
+                    int[] expected = expected(code, position, length, numberOfCheckBytes);
+                    for (int i = 0; i < numberOfCheckBytes; i++) {
+                        assertEquals("version " + version + " " + level + " block " + block + " byte " + i,
+                                expected[i], code[numberOfDataBytes + block*numberOfCheckBytes + i] & 0xFF);
+                    }
+                    position += length;
+                }
+            }
+        }
+    }
+
+    /**
+     * Many messages in lock step, for every length around a multiple of the register size.
+     */
+    public void testMessagesInLockStep()
+    {
+        Random random = new Random(5);
+        int count = 5;
+        int dataStride = 70;
+        int ecStride = 33;
+        for (int numberOfCheckBytes = ReedSolomonUtil.MIN_CHECK_BYTES;
+             numberOfCheckBytes <= ReedSolomonUtil.MAX_CHECK_BYTES; numberOfCheckBytes++) {
+            for (int length = 1; length <= 2*numberOfCheckBytes + 1 && length <= dataStride; length++) {
+                byte[] data = new byte[count*dataStride];
+                random.nextBytes(data);
+                byte[] ecBytes = new byte[3 + count*ecStride];
+                ReedSolomonUtil.generateECBytes(data, 0, dataStride, count, length,
+                        ecBytes, 3, ecStride, numberOfCheckBytes);
+
+                for (int k = 0; k < count; k++) {
+                    int[] expected = expected(data, k*dataStride, length, numberOfCheckBytes);
+                    for (int i = 0; i < numberOfCheckBytes; i++) {
+                        assertEquals(length + "+" + numberOfCheckBytes + " message " + k + " byte " + i,
+                                expected[i], ecBytes[3 + k*ecStride + i] & 0xFF);
+                    }
+                }
+            }
+        }
+    }
+
+    public void testUnsupportedCheckBytes()
+    {
+        try {
+            ReedSolomonUtil.generateECBytes(new byte[10], 0, 10, ReedSolomonUtil.MIN_CHECK_BYTES - 1);
+            fail("encoded with too few check bytes");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        try {
+            ReedSolomonUtil.generateECBytes(new byte[10], 0, 10, ReedSolomonUtil.MAX_CHECK_BYTES + 1);
+            fail("encoded with too many check bytes");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    private static void assertCheckBytes(byte[] data, int length, int numberOfCheckBytes)
+    {
+        byte[] ecBytes = ReedSolomonUtil.generateECBytes(data, 0, length, numberOfCheckBytes);
+        int[] expected = expected(data, 0, length, numberOfCheckBytes);
+        for (int i = 0; i < numberOfCheckBytes; i++) {
+            assertEquals(length + "+" + numberOfCheckBytes + " byte " + i, expected[i], ecBytes[i] & 0xFF);
+        }
+    }
+
+    // zxing's check bytes of data[position, position + length)
+    private static int[] expected(byte[] data, int position, int length, int numberOfCheckBytes)
+    {
+        int[] message = new int[length + numberOfCheckBytes];
+        for (int i = 0; i < length; i++) {
+            message[i] = data[position + i] & 0xFF;
+        }
+        ENCODER.encode(message, numberOfCheckBytes);
+
+        int[] checkBytes = new int[numberOfCheckBytes];
+        System.arraycopy(message, length, checkBytes, 0, numberOfCheckBytes);
+        return checkBytes;
+    }
+}
@@ -0,0 +1,163 @@
+package free6om.research.qart4j;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+
+/**
+ * Unit test for {@link ResultCache}.
+ */
+public class ResultCacheTest
+    extends TestCase
+{
+    private Path directory;
+
+    public ResultCacheTest(String testName)
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( ResultCacheTest.class );
+    }
+
+    @Override
+    protected void setUp() throws IOException
+    {
+        directory = Files.createTempDirectory("results");
+    }
+
+    @Override
+    protected void tearDown()
+    {
+        delete(directory.toFile());
+    }
+
+    public void testKeys()
+    {
+        Request request = new Request();
+        request.setSeed(1);
+        String key = ResultCache.key("abc", request);
+        assertTrue(key.endsWith(".png"));
+
+        Request other = new Request(request);
+        other.setOutput("elsewhere.png");
+        assertEquals("the output file doesn't change the image", key, ResultCache.key("abc", other));
+        other.setMarginLeft(3);
+        assertFalse(key.equals(ResultCache.key("abc", other)));
+        assertFalse(key.equals(ResultCache.key("abd", request)));
+
+        assertNull("images not loaded through the input cache", ResultCache.key(null, request));
+        request.setSeed(-1);
+        assertNull("random seeds", ResultCache.key("abc", request));
+    }
+
+    public void testStoreAndCopy() throws Exception
+    {
+        ResultCache cache = new ResultCache(directory, 1000);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        assertFalse(cache.copyTo("aa1", output));
+        assertEquals(0, output.size());
+
+        output = new ByteArrayOutputStream();
+        cache.store("aa1", content(10, (byte) 1), output);
+        assertEquals(10, output.size());
+        assertEquals(10, cache.getBytes());
+
+        output = new ByteArrayOutputStream();
+        assertTrue(cache.copyTo("aa1", output));
+        assertTrue(Arrays.equals(bytes(10, (byte) 1), output.toByteArray()));
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+
+        // the same key again replaces the file and counts its size once
+        cache.store("aa1", content(25, (byte) 2), new ByteArrayOutputStream());
+        assertEquals(25, cache.getBytes());
+
+        // a new cache counts what is on disk, temporary files left out
+        Files.write(directory.resolve("aa").resolve("aa2.part"), new byte[7]);
+        assertEquals(25, new ResultCache(directory, 1000).getBytes());
+    }
+
+    public void testFailedContentIsNotKept() throws Exception
+    {
+        ResultCache cache = new ResultCache(directory, 1000);
+        try {
+            cache.store("bb1", new ResultCache.Content() {
+                @Override
+                public void writeTo(OutputStream output) throws IOException, QArtException {
+                    output.write(1);
+                    throw new QArtException("no");
+                }
+            }, new ByteArrayOutputStream());
+            fail("stored a result that failed");
+        } catch (QArtException e) {
+            // expected
+        }
+
+        assertEquals(0, cache.getBytes());
+        assertFalse(cache.copyTo("bb1", new ByteArrayOutputStream()));
+        assertEquals(0, directory.resolve("bb").toFile().list().length);
+    }
+
+    public void testEvictsLeastRecentlyUsed() throws Exception
+    {
+        ResultCache cache = new ResultCache(directory, 100);
+        cache.store("cc1", content(40, (byte) 1), new ByteArrayOutputStream());
+        cache.store("cc2", content(40, (byte) 2), new ByteArrayOutputStream());
+        Files.setLastModifiedTime(path("cc1"), FileTime.fromMillis(1000000));
+        Files.setLastModifiedTime(path("cc2"), FileTime.fromMillis(2000000));
+        // reading cc1 makes cc2 the least recently used
+        assertTrue(cache.copyTo("cc1", new ByteArrayOutputStream()));
+
+        // 120 bytes is over the maximum, files go until at most 90 are left
+        cache.store("cc3", content(40, (byte) 3), new ByteArrayOutputStream());
+        assertEquals(80, cache.getBytes());
+        assertFalse(Files.exists(path("cc2")));
+        assertTrue(cache.copyTo("cc1", new ByteArrayOutputStream()));
+        assertTrue(cache.copyTo("cc3", new ByteArrayOutputStream()));
+    }
+
+    private Path path(String key)
+    {
+        return directory.resolve(key.substring(0, 2)).resolve(key);
+    }
+
+    private static ResultCache.Content content(final int length, final byte value)
+    {
+        return new ResultCache.Content() {
+            @Override
+            public void writeTo(OutputStream output) throws IOException {
+                output.write(bytes(length, value));
+            }
+        };
+    }
+
+    private static byte[] bytes(int length, byte value)
+    {
+        byte[] bytes = new byte[length];
+        Arrays.fill(bytes, value);
+        return bytes;
+    }
+
+    private static void delete(File file)
+    {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
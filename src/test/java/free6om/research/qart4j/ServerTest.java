@@ -0,0 +1,173 @@
+package free6om.research.qart4j;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.file.Files;
+
+/**
+ * Unit test for {@link Server}, over HTTP on a free local port.
+ */
+public class ServerTest
+    extends TestCase
+{
+    private File directory;
+    private File outside;
+    private byte[] png;
+    private Server server;
+
+    public ServerTest(String testName)
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( ServerTest.class );
+    }
+
+    @Override
+    protected void setUp() throws Exception
+    {
+        BufferedImage image = new BufferedImage(40, 40, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < 40; y++) {
+            for (int x = 0; x < 40; x++) {
+                image.setRGB(x, y, (x*6) << 16 | (y*6) << 8 | 0x80);
+            }
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ImageIO.write(image, "PNG", bytes);
+        png = bytes.toByteArray();
+
+        directory = Files.createTempDirectory("server").toFile();
+        Files.write(new File(directory, "input.png").toPath(), png);
+        outside = File.createTempFile("outside", ".png");
+        Files.write(outside.toPath(), png);
+
+        Request defaults = new Request();
+        defaults.setVersion(2);
+        defaults.setWidth(90);
+        defaults.setHeight(90);
+        server = new Server(defaults, new InetSocketAddress("127.0.0.1", 0), 2);
+        server.start();
+    }
+
+    @Override
+    protected void tearDown()
+    {
+        server.stop(0);
+        new File(directory, "input.png").delete();
+        directory.delete();
+        outside.delete();
+    }
+
+    public void testPostedImage() throws IOException
+    {
+        HttpURLConnection connection = post("url=http://example.com/&seed=1", png);
+        assertEquals(200, connection.getResponseCode());
+        assertEquals("image/png", connection.getContentType());
+        BufferedImage image = ImageIO.read(connection.getInputStream());
+        assertEquals(90, image.getWidth());
+        assertEquals(90, image.getHeight());
+    }
+
+    public void testInputInDirectory() throws IOException
+    {
+        server.setInputDirectory(directory);
+        HttpURLConnection connection = get("input=input.png&format=svg");
+        assertEquals(200, connection.getResponseCode());
+        assertEquals("image/svg+xml", connection.getContentType());
+        assertTrue(new String(read(connection.getInputStream()), "UTF-8").contains("<svg"));
+    }
+
+    public void testInputOutsideOfDirectory() throws IOException
+    {
+        // without a directory no file is read at all
+        assertEquals(400, get("input=input.png").getResponseCode());
+
+        server.setInputDirectory(directory);
+        assertEquals(400, get("input=" + outside.getPath()).getResponseCode());
+        assertEquals(400, get("input=../" + outside.getName()).getResponseCode());
+        assertEquals(400, get("input=missing.png").getResponseCode());
+    }
+
+    public void testBodyTooLarge() throws IOException
+    {
+        server.setMaximumBodySize(png.length - 1);
+        assertEquals(413, post("", png).getResponseCode());
+
+        server.setMaximumBodySize(png.length);
+        assertEquals(200, post("", png).getResponseCode());
+    }
+
+    public void testImageTooLarge() throws IOException
+    {
+        server.setMaximumImageSize(100);
+        assertEquals(200, post("width=100&height=100&size=100", png).getResponseCode());
+
+        assertEquals(400, post("width=101", png).getResponseCode());
+        assertEquals(400, post("height=2000000000", png).getResponseCode());
+        assertEquals(400, post("size=101", png).getResponseCode());
+        assertEquals(400, post("width=-1", png).getResponseCode());
+        assertEquals(400, post("marginLeft=-101", png).getResponseCode());
+        // 25 modules and 38 on each side
+        assertEquals(400, post("quiet=38", png).getResponseCode());
+        assertEquals(400, post("version=41", png).getResponseCode());
+        assertEquals(400, post("version=0", png).getResponseCode());
+    }
+
+    public void testBadRequests() throws IOException
+    {
+        assertEquals(400, post("format=nope", png).getResponseCode());
+        assertEquals(400, post("version=x", png).getResponseCode());
+
+        HttpURLConnection connection = connect("");
+        connection.setRequestMethod("DELETE");
+        assertEquals(405, connection.getResponseCode());
+    }
+
+    private HttpURLConnection get(String query) throws IOException
+    {
+        return connect(query);
+    }
+
+    private HttpURLConnection post(String query, byte[] body) throws IOException
+    {
+        HttpURLConnection connection = connect(query);
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        OutputStream out = connection.getOutputStream();
+        out.write(body);
+        out.close();
+        return connection;
+    }
+
+    private HttpURLConnection connect(String query) throws IOException
+    {
+        URL url = new URL("http://127.0.0.1:" + server.getAddress().getPort() + "/encode?" + query);
+        return (HttpURLConnection) url.openConnection();
+    }
+
+    private static byte[] read(InputStream in) throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int n;
+        while ((n = in.read(buffer)) > 0) {
+            bytes.write(buffer, 0, n);
+        }
+        in.close();
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,92 @@
+package free6om.research.qart4j;
+
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Unit test for {@link SvgWriter}: the path it writes is drawn back into modules and compared
+ * with {@link ImageUtil#makeImage(QRCode, int, int, MatrixToImageConfig)}.
+ */
+public class SvgWriterTest
+    extends TestCase
+{
+    private static final Pattern RUN = Pattern.compile("M(\\d+) (\\d+)h(\\d+)v1h-(\\d+)z");
+
+    public SvgWriterTest(String testName)
+    {
+        super( testName );
+    }
+
+    public static Test suite()
+    {
+        return new TestSuite( SvgWriterTest.class );
+    }
+
+    public void testSameModulesAsMakeImage() throws IOException
+    {
+        QRCode code = code();
+        int quietZone = 3;
+        int modules = code.getSize() + quietZone*2;
+        MatrixToImageConfig config = new MatrixToImageConfig(0xFF102030, 0xFFF0E0D0);
+        String svg = write(code, quietZone, 200, config);
+        assertTrue(svg.contains("width=\"200\" height=\"200\" viewBox=\"0 0 " + modules + " " + modules + "\""));
+        assertTrue(svg.contains("<rect width=\"" + modules + "\" height=\"" + modules + "\" fill=\"#f0e0d0\"/>"));
+        assertTrue(svg.contains("<path fill=\"#102030\" d=\""));
+
+        boolean[][] dark = new boolean[modules][modules];
+        Matcher matcher = RUN.matcher(svg);
+        int runs = 0;
+        while (matcher.find()) {
+            int x = Integer.parseInt(matcher.group(1));
+            int y = Integer.parseInt(matcher.group(2));
+            int length = Integer.parseInt(matcher.group(3));
+            assertEquals(length, Integer.parseInt(matcher.group(4)));
+            for (int i = 0; i < length; i++) {
+                assertFalse("modules drawn twice", dark[y][x + i]);
+                dark[y][x + i] = true;
+            }
+            // every run is as long as it can be
+            assertFalse(x > 0 && dark[y][x - 1]);
+            runs++;
+        }
+        assertTrue(runs > 0);
+
+        // one output pixel per module
+        BufferedImage expected = ImageUtil.makeImage(code, quietZone, modules, config);
+        for (int y = 0; y < modules; y++) {
+            for (int x = 0; x < modules; x++) {
+                assertEquals("(" + x + ", " + y + ")", expected.getRGB(x, y) == config.getPixelOnColor(), dark[y][x]);
+            }
+        }
+    }
+
+    public void testColors() throws IOException
+    {
+        String svg = write(code(), 2, 100, new MatrixToImageConfig(0x80FF0000, 0x00FFFFFF));
+        assertFalse("a transparent background is left out", svg.contains("<rect"));
+        assertTrue(svg.contains("<path fill=\"#ff0000\" fill-opacity=\"0.502\" d=\""));
+    }
+
+    private static QRCode code()
+    {
+        try {
+            return Plan.encode(Plan.newPlan(new Version(4), Level.M, new Mask(5)), new Raw("http://example.com/"));
+        } catch (QArtException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String write(QRCode code, int quietZone, int size, MatrixToImageConfig config) throws IOException
+    {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        SvgWriter.write(code, quietZone, size, config, bytes);
+        return bytes.toString("UTF-8");
+    }
+}